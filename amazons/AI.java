@@ -1,6 +1,20 @@
 package amazons;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
 import static java.lang.Math.*;
 import static amazons.Piece.*;
 
@@ -14,29 +28,107 @@ class AI extends Player {
     private static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
     /** A magnitude greater than a normal value. */
     private static final int INFTY = Integer.MAX_VALUE;
-    /** 1st threshold to increase depth. */
-    private static final int THRESHOLD1 = 20;
-    /** 2nd threshold to increase depth. */
-    private static final int THRESHOLD2 = 25;
-    /** 3rd threshold to increase depth. */
-    private static final int THRESHOLD3 = 35;
-    /** 4th threshold to increase depth. */
-    private static final int THRESHOLD4 = 40;
+    /** The largest number of plies searched: no game can last longer,
+     *  since each move fills an empty square. */
+    private static final int MAX_PLY = Board.SIZE * Board.SIZE;
+    /** The clock is read once every CLOCK_CHECK_MASK + 1 nodes. */
+    private static final int CLOCK_CHECK_MASK = 0xff;
+    /** Least depth of a node whose children are searched in parallel
+     *  by Young Brothers Wait.  Shallower subtrees are too small to be
+     *  worth a task. */
+    private static final int MIN_SPLIT_DEPTH = 2;
+    /** Half the width of the initial aspiration window around the
+     *  previous iteration's value. */
+    private static final int ASPIRATION_WIDTH = 64;
+    /** Number of moves before which regions are not analyzed: spears
+     *  rarely divide the board sooner. */
+    private static final int MIN_REGION_MOVES = 20;
+    /** Number of killer moves kept for each ply. */
+    private static final int KILLERS = 2;
+    /** Ordering scores of the killer moves, in order.  They exceed any
+     *  history score. */
+    private static final int[] KILLER_SCORES = { 1 << 23, 1 << 22 };
+    /** A history score above which all history scores are halved. */
+    private static final int HISTORY_LIMIT = 1 << 20;
+    /** Number of squares. */
+    private static final int SQUARES = Board.SIZE * Board.SIZE;
+    /** Number of bits in a packed move. */
+    private static final int MOVE_BITS = 21;
+    /** Number of bits needed for an index into a list of moves. */
+    private static final int INDEX_BITS = 13;
 
     /** A new AI with no piece or controller (intended to produce
-     *  a template). */
+     *  a template), using default settings. */
     AI() {
-        this(null, null);
+        this(new SearchConfig());
+    }
+
+    /** A new AI with no piece or controller (intended to produce
+     *  a template), configured by CONFIG. */
+    AI(SearchConfig config) {
+        super(null, null);
+        _config = config;
+        _evalCache = new EvalCache(config.evalCacheBytes());
+        _table = new TranspositionTable(config.tableBytes());
+        _tablebase = config.tablebaseFile() == null ? null
+            : new Tablebase(config.tablebaseFile());
+        _book = config.bookFile() == null ? null
+            : new OpeningBook(config.bookFile());
+        if (config.threads() > 1 && config.youngBrothersWait()) {
+            _splitPool = new ForkJoinPool(config.threads());
+            _helperThreads = null;
+        } else if (config.threads() > 1) {
+            _splitPool = null;
+            _helperThreads =
+                Executors.newFixedThreadPool(config.threads() - 1, job -> {
+                    Thread thread = new Thread(job, "AI helper");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        } else {
+            _splitPool = null;
+            _helperThreads = null;
+        }
     }
 
-    /** A new AI playing PIECE under control of CONTROLLER. */
-    AI(Piece piece, Controller controller) {
+    /** A new AI playing PIECE under control of CONTROLLER, sharing the
+     *  settings and tables of TEMPLATE. */
+    private AI(Piece piece, Controller controller, AI template) {
         super(piece, controller);
+        _config = template._config;
+        _evalCache = template._evalCache;
+        _table = template._table;
+        _tablebase = template._tablebase;
+        _book = template._book;
+        _helperThreads = template._helperThreads;
+        _splitPool = template._splitPool;
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        return new AI(piece, controller, this);
+    }
+
+    /** Return the cache of static evaluations used by my searches. */
+    EvalCache evalCache() {
+        return _evalCache;
+    }
+
+    /** Return the number of nodes each thread visited during my last
+     *  search, keyed by thread name.  Each thread counts its own nodes,
+     *  so the counts are exact, although how the work is shared among
+     *  threads varies from run to run. */
+    Map<String, Long> nodeCounts() {
+        return _nodeCounts;
+    }
+
+    /** Return the fraction of the beta cutoffs found during my last
+     *  search that were caused by the first move tried, or 0 if there
+     *  were none.  This measures the quality of my move ordering. */
+    double firstMoveCutoffRate() {
+        long cutoffs = _cutoffCount.sum();
+        return cutoffs == 0 ? 0.0
+            : (double) _firstMoveCutoffCount.sum() / cutoffs;
     }
 
     @Override
@@ -47,117 +139,918 @@ class AI extends Player {
     }
 
     /** Return a move for me from the current position, assuming there
-     *  is a move. */
+     *  is a move.  Plays from my OpeningBook, if I have one and it holds
+     *  a move for the position.  Otherwise, searches to depths 1, 2,
+     *  3, ... in turn until the time allowed for the move runs out, and
+     *  returns the best move found by the deepest search that finished.
+     *  If my SearchConfig calls for more than one thread, either the
+     *  search runs in a ForkJoinPool that searches the younger children
+     *  of each node in parallel (see Searcher.splitSearch), or helper
+     *  threads search the same position meanwhile (see startHelpers). */
     private Move findMove() {
         Board b = new Board(board());
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
+        if (_book != null) {
+            int move = bookMove(b);
+            if (move >= 0) {
+                return Move.mv(move);
+            }
         }
-        return _lastFoundMove;
+        startClock(b);
+        _stopped = false;
+        _nodeCounts.clear();
+        _cutoffCount.reset();
+        _firstMoveCutoffCount.reset();
+        if (_searcher == null) {
+            _searcher = new Searcher();
+        }
+        if (_splitPool != null) {
+            int best = _splitPool.invoke(
+                ForkJoinTask.adapt(() -> _searcher.iterate(b, 1)));
+            return Move.mv(best);
+        }
+        List<Future<?>> helpers = startHelpers(b);
+        int best = _searcher.iterate(b, 1);
+        _stopped = true;
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalStateException("helper search failed: "
+                                                + excp.getMessage());
+            }
+        }
+        return Move.mv(best);
     }
 
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
-    private Move _lastFoundMove;
+    /** Return a packed move from my OpeningBook for BOARD, or -1 if it
+     *  has none that is legal and has won.  The moves are chosen at
+     *  random in proportion to their weights, using my Controller's
+     *  random numbers.  Records that do not hold legal moves or
+     *  sensible weights, as in a damaged or outdated book, are
+     *  ignored. */
+    private int bookMove(Board board) {
+        long key = board.canonicalKey();
+        int first = _book.find(key);
+        if (first < 0) {
+            return -1;
+        }
+        int inverse = Square.inverse(board.canonicalSymmetry());
+        long total = 0;
+        for (int i = first; i < _book.size() && _book.key(i) == key;
+             i += 1) {
+            if (bookMove(board, inverse, i) != -1) {
+                total += max(_book.weight(i), 0);
+            }
+        }
+        if (total == 0 || total > Integer.MAX_VALUE) {
+            return -1;
+        }
+        int pick = _controller.randInt((int) total);
+        for (int i = first; ; i += 1) {
+            int move = bookMove(board, inverse, i);
+            if (move != -1) {
+                pick -= max(_book.weight(i), 0);
+                if (pick < 0) {
+                    return move;
+                }
+            }
+        }
+    }
 
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove, int sense,
-                         int alpha, int beta) {
-        if (depth == 0 || board.winner() != null) {
-            return staticScore(board);
+    /** Return the move of record I of my OpeningBook, packed and
+     *  carried by symmetry INVERSE from the canonical position to
+     *  BOARD, or -1 if it is not a legal move there. */
+    private int bookMove(Board board, int inverse, int i) {
+        int move = _book.move(i);
+        if (!Move.isPacked(move)) {
+            return -1;
         }
+        move = Move.symmetric(inverse, move);
+        Move result = Move.mv(move);
+        return result != null && board.isLegal(result) ? move : -1;
+    }
 
-        int best;
-        Move bestM;
-        if (sense == 1) {
-            best = -INFTY;
-        } else {
-            best = INFTY;
-        }
-        bestM = null;
-        Iterator<Move> iter = board.legalMoves(myPiece());
-        Move next;
-        while (iter.hasNext()) {
-            next = iter.next();
-            board.makeMove(next);
-            int response = findMove(board, depth - 1,
-                    false, sense * -1, alpha, beta);
-            board.undo();
-            if (sense == 1) {
-                if (response >= best) {
-                    best = response;
-                    bestM = next;
-                    alpha = max(alpha, response);
-                    if (beta <= alpha) {
+    /** Start the helper threads of a Lazy SMP search from BOARD, and
+     *  return their Futures.  Each helper iteratively deepens on its own
+     *  copy of BOARD until _stopped is set, half of them starting one
+     *  ply deeper than the main search so that the threads' iterations
+     *  stay out of step.  The helpers' results reach the main search
+     *  only through the shared transposition table, where they provide
+     *  cutoffs and move ordering. */
+    private List<Future<?>> startHelpers(Board board) {
+        List<Future<?>> result = new ArrayList<>();
+        int count = _config.threads() - 1;
+        if (count <= 0) {
+            return result;
+        }
+        if (_helperSearchers == null) {
+            _helperSearchers = new Searcher[count];
+            for (int i = 0; i < count; i += 1) {
+                _helperSearchers[i] = new Searcher();
+            }
+        }
+        for (int i = 0; i < count; i += 1) {
+            Searcher helper = _helperSearchers[i];
+            Board copy = new Board(board);
+            int firstDepth = 1 + (i + 1) % 2;
+            result.add(_helperThreads.submit(
+                () -> helper.iterate(copy, firstDepth)));
+        }
+        return result;
+    }
+
+    /** Set the deadlines for choosing a move on BOARD, starting now,
+     *  from the budget given by my SearchConfig (see
+     *  SearchConfig.moveTargetMillis and moveLimitMillis).  No new
+     *  iteration starts after _softDeadline, and the search is abandoned
+     *  at _deadline.  In a timed game, an iteration that starts may
+     *  take several times as long as the last, so _softDeadline comes
+     *  halfway to the target, and _deadline at most half as far again
+     *  beyond it. */
+    private void startClock(Board board) {
+        long now = System.nanoTime();
+        long target = _config.moveTargetMillis(_controller, _myPiece, board),
+            limit = _config.moveLimitMillis(_controller, _myPiece);
+        if (_controller.timed()) {
+            limit = min(limit, target * 3 / 2);
+            target /= 2;
+        }
+        _softDeadline = now + target * 1000000L;
+        _deadline = now + limit * 1000000L;
+    }
+
+    /** Return a Searcher not in use by any thread, creating one if
+     *  necessary. */
+    private Searcher acquireSearcher() {
+        Searcher searcher = _idleSearchers.poll();
+        if (searcher == null) {
+            searcher = new Searcher();
+        }
+        return searcher;
+    }
+
+    /** Return SEARCHER, acquired by acquireSearcher, for reuse. */
+    private void releaseSearcher(Searcher searcher) {
+        _idleSearchers.push(searcher);
+    }
+
+    /** Return the difference between WHITE's and BLACK's numbers of
+     *  legal moves on BOARD. */
+    private int mobilityScore(Board board) {
+        return board.mobility(WHITE) - board.mobility(BLACK);
+    }
+
+    /** If MOVE is among the first N entries of MOVES, move it to the
+     *  front, shifting the entries before it back by one, and return
+     *  true.  Otherwise, return false. */
+    private static boolean toFront(int[] moves, int n, int move) {
+        for (int i = 0; i < n; i += 1) {
+            if (moves[i] == move) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The state of one thread's search: its own move buffers and
+     *  principal variations.  The deadline, the stop flag and the
+     *  tables belong to the enclosing AI and are shared.  In a Young
+     *  Brothers Wait search, each SplitTask borrows a Searcher while it
+     *  runs. */
+    private class Searcher {
+
+        /** A Searcher with no killer moves or history. */
+        Searcher() {
+            for (int[] killers : _killers) {
+                Arrays.fill(killers, -1);
+            }
+        }
+
+        /** Search BOARD by iterative deepening, starting at depth
+         *  FIRSTDEPTH, until the time allowed runs out, the outcome is
+         *  certain, or _stopped is set, and return the best move
+         *  (packed) found by the deepest completed iteration.  If none
+         *  completes, returns the first legal move.  A winning or losing
+         *  value counts as certain only if no moves were pruned (see
+         *  SearchConfig.forwardPruning), since otherwise the refutation
+         *  may have been among those left out. */
+        int iterate(Board board, int firstDepth) {
+            int sense = board.turn() == WHITE ? 1 : -1;
+            _split = null;
+            _rootMoves = board.numMoves();
+            _prevPvLength = 0;
+
+            int best = firstLegalMove(board);
+            int value = 0, lastValue = 0, secondLastValue = 0;
+            for (int depth = firstDepth; depth <= MAX_PLY; depth += 1) {
+                if (depth > firstDepth
+                    && System.nanoTime() > _softDeadline) {
+                    break;
+                }
+                _followPv = true;
+                if (depth > firstDepth + 1 && _config.aspirationWindows()) {
+                    value = aspirate(board, depth, sense, secondLastValue);
+                } else {
+                    value = findMove(board, depth, sense, -INFTY, INFTY);
+                }
+                if (_stopped) {
+                    break;
+                }
+                best = _pv[0][0];
+                secondLastValue = lastValue;
+                lastValue = value;
+                _prevPvLength = _pvLength[0];
+                System.arraycopy(_pv[0], 0, _prevPv, 0, _prevPvLength);
+                if (abs(value) == WINNING_VALUE
+                    && !_config.forwardPruning()) {
+                    break;
+                }
+            }
+            reportWork();
+            return best;
+        }
+
+        /** Add the nodes I have visited and the cutoffs I have found
+         *  since my last report to the totals for the current search,
+         *  counting the nodes as the current thread's. */
+        void reportWork() {
+            _nodeCounts.merge(Thread.currentThread().getName(),
+                              _nodes - _reportedNodes, Long::sum);
+            _cutoffCount.add(_cutoffs - _reportedCutoffs);
+            _firstMoveCutoffCount.add(_firstMoveCutoffs
+                                      - _reportedFirstMoveCutoffs);
+            _reportedNodes = _nodes;
+            _reportedCutoffs = _cutoffs;
+            _reportedFirstMoveCutoffs = _firstMoveCutoffs;
+        }
+
+        /** Return true iff my current search is to be abandoned,
+         *  because time has run out, or because the main search has
+         *  finished, or because a cutoff has made the subtree I am
+         *  searching irrelevant. */
+        boolean stopped() {
+            return _stopped || (_split != null && _split.aborted());
+        }
+
+        /** Search BOARD to DEPTH plies as for findMove(BOARD, DEPTH,
+         *  SENSE, -INFTY, INFTY), and return its value, but start with
+         *  the window ASPIRATION_WIDTH on either side of GUESS, the
+         *  value from the iteration before last.  (Mobility favors
+         *  whoever moved last, so values from depths of the same parity
+         *  agree much better than consecutive ones.)  Whenever the
+         *  value falls outside the window, the search is repeated with
+         *  the window widened on that side, by twice as much each
+         *  time. */
+        private int aspirate(Board board, int depth, int sense,
+                             int guess) {
+            long lowDelta = ASPIRATION_WIDTH, highDelta = ASPIRATION_WIDTH;
+            while (true) {
+                int alpha = (int) max(-INFTY, guess - lowDelta),
+                    beta = (int) min(INFTY, guess + highDelta);
+                _followPv = true;
+                int value = findMove(board, depth, sense, alpha, beta);
+                if (_stopped) {
+                    return 0;
+                } else if (value <= alpha && alpha > -INFTY) {
+                    lowDelta *= 2;
+                } else if (value >= beta && beta < INFTY) {
+                    highDelta *= 2;
+                } else {
+                    return value;
+                }
+            }
+        }
+
+        /** Return the first legal move for the player to move on
+         *  BOARD. */
+        private int firstLegalMove(Board board) {
+            int[] moves = moveBuffer(0);
+            board.legalMoves(board.turn(), moves);
+            return moves[0];
+        }
+
+        /** Find a move from position BOARD and return its value,
+         *  recording the principal variation found (best line of play)
+         *  in _pv and the result in the transposition table, which is
+         *  also consulted for cutoffs and for the move to try first.
+         *  The move should have maximal value or have value > BETA if
+         *  SENSE==1, and minimal value or value < ALPHA if SENSE==-1.
+         *  Searches up to DEPTH levels.  Searching at level 0 simply
+         *  returns a static estimate of the board value.  At the root,
+         *  moves that a symmetry of BOARD makes equivalent are searched
+         *  only once (see Board.uniqueMoves).  The move from the previous
+         *  iteration's principal variation and the table's move are
+         *  searched first, and so survive any move count limit.  If the
+         *  time allowed runs out, sets _stopped and returns a
+         *  meaningless value, as it does if the search is abandoned (see
+         *  stopped). */
+        private int findMove(Board board, int depth, int sense,
+                             int alpha, int beta) {
+            int ply = board.numMoves() - _rootMoves;
+            _pvLength[ply] = 0;
+            _nodes += 1;
+            if ((_nodes & CLOCK_CHECK_MASK) == 0
+                && System.nanoTime() > _deadline) {
+                _stopped = true;
+            }
+            if (stopped()) {
+                return 0;
+            }
+            if (depth == 0 || board.winner() != null) {
+                return staticScore(board);
+            }
+
+            long key = board.key();
+            long entry = _table.probe(key);
+            int tableMove = -1;
+            if (entry != 0) {
+                tableMove = TranspositionTable.move(entry);
+                if (ply > 0
+                    && TranspositionTable.depth(entry) >= depth) {
+                    int score = TranspositionTable.score(entry);
+                    switch (TranspositionTable.bound(entry)) {
+                    case TranspositionTable.EXACT:
+                        return score;
+                    case TranspositionTable.LOWER:
+                        alpha = max(alpha, score);
+                        break;
+                    default:
+                        beta = min(beta, score);
                         break;
                     }
+                    if (beta <= alpha) {
+                        return score;
+                    }
                 }
-            } else if (sense == -1) {
-                if (response <= best) {
+            }
+            /* The window actually searched, as narrowed by the table: a
+             * result outside it is only a bound. */
+            int alpha0 = alpha, beta0 = beta;
+
+            boolean regions = analyzeRegions(board);
+            if (regions && ply > 0 && _regions.winner() != null) {
+                return _regions.winner() == WHITE
+                    ? WINNING_VALUE : -WINNING_VALUE;
+            }
+
+            int best, bestMove;
+            if (sense == 1) {
+                best = -INFTY;
+            } else {
+                best = INFTY;
+            }
+            bestMove = -1;
+            int[] moves = moveBuffer(ply);
+            int n = generateMoves(board, moves, ply, regions);
+            if (ply == 0) {
+                n = board.uniqueMoves(moves, n);
+            }
+            orderMoves(moves, n, ply);
+            if (tableMove != -1) {
+                toFront(moves, n, tableMove);
+            }
+            if (_followPv) {
+                _followPv = ply < _prevPvLength
+                    && toFront(moves, n, _prevPv[ply]);
+            }
+            int limit = _config.moveCountLimit(depth);
+            if (ply > 0 && limit > 0 && n > limit) {
+                n = limit;
+            }
+            for (int i = 0; i < n; i += 1) {
+                if (i == 1 && _splitPool != null
+                    && depth >= MIN_SPLIT_DEPTH) {
+                    best = splitSearch(board, moves, n, depth, sense,
+                                       alpha, beta, best);
+                    if (stopped()) {
+                        return 0;
+                    }
+                    bestMove = _pv[ply][ply];
+                    if (sense == 1 ? best >= beta : best <= alpha) {
+                        recordCutoff(bestMove, depth, ply, false);
+                    }
+                    break;
+                }
+                int next = moves[i];
+                board.makeMove(next);
+                int response;
+                if (i == 0) {
+                    response = findMove(board, depth - 1,
+                            sense * -1, alpha, beta);
+                } else {
+                    response = searchLater(board, i, depth - 1,
+                                           sense * -1, alpha, beta);
+                }
+                board.undo();
+                _followPv = false;
+                if (stopped()) {
+                    return 0;
+                }
+                if (sense == 1 ? response > best : response < best) {
                     best = response;
-                    bestM = next;
-                    beta = min(beta, response);
+                    bestMove = next;
+                    _pv[ply][ply] = next;
+                    System.arraycopy(_pv[ply + 1], ply + 1,
+                                     _pv[ply], ply + 1, _pvLength[ply + 1]);
+                    _pvLength[ply] = _pvLength[ply + 1] + 1;
+                    if (sense == 1) {
+                        alpha = max(alpha, response);
+                    } else {
+                        beta = min(beta, response);
+                    }
                     if (beta <= alpha) {
+                        recordCutoff(next, depth, ply, i == 0);
                         break;
                     }
                 }
             }
-            if (saveMove) {
-                _lastFoundMove = bestM;
+            int bound = best <= alpha0 ? TranspositionTable.UPPER
+                : best >= beta0 ? TranspositionTable.LOWER
+                : TranspositionTable.EXACT;
+            _table.store(key, depth, bound, best, bestMove);
+            return best;
+        }
+
+        /** Return the value of BOARD, the position after move I > 0
+         *  at a node, as for findMove(BOARD, DEPTH, SENSE, ALPHA,
+         *  BETA), where SENSE is the opponent's of the node's player.
+         *  If my SearchConfig calls for late move reductions and move I
+         *  comes late enough in the ordering, BOARD is first searched
+         *  to a reduced depth with a null window at the node's current
+         *  bound, and if it is no better than the moves already
+         *  searched, that value is returned.  Otherwise, it is searched
+         *  to full depth, with principal variation search (see scout)
+         *  if that is configured. */
+        private int searchLater(Board board, int i, int depth, int sense,
+                                int alpha, int beta) {
+            int lateMoves = _config.lateMoves(),
+                reduced = depth - _config.lateMoveReduction();
+            if (lateMoves > 0 && i >= lateMoves && reduced >= 1) {
+                int response = nullWindow(board, reduced, sense,
+                                          alpha, beta);
+                if (stopped() || !improves(response, sense, alpha, beta)) {
+                    return response;
+                }
+            }
+            if (_config.principalVariationSearch()) {
+                return scout(board, depth, sense, alpha, beta);
+            }
+            return findMove(board, depth, sense, alpha, beta);
+        }
+
+        /** Return the value of BOARD, a position after some but the
+         *  first of the moves at a node, as for findMove(BOARD, DEPTH,
+         *  SENSE, ALPHA, BETA), where SENSE is the opponent's of the
+         *  node's player.  The position is first searched with a null
+         *  window at the node's current bound, which suffices to show
+         *  that it is no better than the moves already searched.  Only
+         *  if it turns out to be better is it searched again with the
+         *  full window. */
+        private int scout(Board board, int depth, int sense,
+                          int alpha, int beta) {
+            int response = nullWindow(board, depth, sense, alpha, beta);
+            if (response > alpha && response < beta && !stopped()) {
+                response = findMove(board, depth, sense, alpha, beta);
+            }
+            return response;
+        }
+
+        /** Return findMove(BOARD, DEPTH, SENSE, ...) with a null
+         *  window at the bound of the player at the parent node, whose
+         *  window is ALPHA to BETA: ALPHA if SENSE is -1 and BETA
+         *  otherwise. */
+        private int nullWindow(Board board, int depth, int sense,
+                               int alpha, int beta) {
+            if (sense == -1) {
+                return findMove(board, depth, sense, alpha, alpha + 1);
+            } else {
+                return findMove(board, depth, sense, beta - 1, beta);
+            }
+        }
+
+        /** Return true iff RESPONSE, the value of a position with
+         *  SENSE as for findMove, improves on the bound of the player
+         *  at the parent node, whose window is ALPHA to BETA. */
+        private boolean improves(int response, int sense,
+                                 int alpha, int beta) {
+            return sense == -1 ? response > alpha : response < beta;
+        }
+
+        /** Return a heuristic value for BOARD, consulting and updating
+         *  the evaluation cache.  Positions whose regions are all
+         *  settled (see RegionSolver) get their exact values.  Others
+         *  are evaluated by _territory unless my SearchConfig calls for
+         *  the mobility evaluation. */
+        private int staticScore(Board board) {
+            Piece winner = board.winner();
+            if (winner == BLACK) {
+                return -WINNING_VALUE;
+            } else if (winner == WHITE) {
+                return WINNING_VALUE;
+            }
+
+            long cached = _evalCache.get(board.key());
+            if (cached != EvalCache.MISS) {
+                return (int) cached;
+            }
+            int score;
+            if (analyzeRegions(board) && _regions.winner() != null) {
+                score = _regions.winner() == WHITE
+                    ? WINNING_VALUE : -WINNING_VALUE;
+            } else if (_config.territoryEvaluation()) {
+                score = _territory.evaluate(board);
+            } else {
+                score = mobilityScore(board);
+            }
+            _evalCache.put(board.key(), score);
+            return score;
+        }
+
+        /** Analyze the regions of BOARD into _regions and return true,
+         *  if my SearchConfig calls for region analysis and BOARD is
+         *  late enough in the game for spears to have divided it.
+         *  Otherwise, return false. */
+        private boolean analyzeRegions(Board board) {
+            if (!_config.regionSolving()
+                || board.numMoves() < MIN_REGION_MOVES) {
+                return false;
+            }
+            _regions.analyze(board);
+            return true;
+        }
+
+        /** Store in MOVES the moves to be searched at ply PLY from
+         *  BOARD and return their number.  These are all the legal
+         *  moves, unless my SearchConfig limits the widths of the
+         *  search at PLY, in which case they are the best few as chosen
+         *  by Board.selectedMoves.  If REGIONS, _regions holds an
+         *  analysis of BOARD, and moves in settled regions are left out
+         *  of a full-width search, apart from a single tempo move. */
+        private int generateMoves(Board board, int[] moves, int ply,
+                                  boolean regions) {
+            int queens = _config.queenWidth(ply),
+                arrows = _config.arrowWidth(ply);
+            if (queens == 0 && arrows == 0) {
+                Piece side = board.turn();
+                if (regions) {
+                    int n = board.legalMoves(side, moves,
+                                             _regions.searchLo(),
+                                             _regions.searchHi());
+                    int tempo = _regions.tempoMove(side);
+                    if (tempo != -1) {
+                        moves[n] = tempo;
+                        n += 1;
+                    }
+                    if (n > 0) {
+                        return n;
+                    }
+                }
+                return board.legalMoves(side, moves);
+            }
+            return board.selectedMoves(board.turn(), moves, queens, arrows);
+        }
+
+        /** Sort the first N entries of MOVES, the moves at ply PLY, so
+         *  that the killer moves for PLY come first, followed by the
+         *  rest in decreasing order of their history scores: the sums
+         *  of the scores of their amazon moves and of their spear
+         *  throws.  Moves with equal scores keep their order. */
+        private void orderMoves(int[] moves, int n, int ply) {
+            long[] keys = _sortKeys;
+            int killer0 = _killers[ply][0], killer1 = _killers[ply][1];
+            for (int i = 0; i < n; i += 1) {
+                int move = moves[i];
+                int from = Move.fromIndex(move), to = Move.toIndex(move);
+                int score;
+                if (move == killer0) {
+                    score = KILLER_SCORES[0];
+                } else if (move == killer1) {
+                    score = KILLER_SCORES[1];
+                } else {
+                    score = _queenHistory[from * SQUARES + to]
+                        + _arrowHistory[to * SQUARES
+                                        + Move.spearIndex(move)];
+                }
+                keys[i] = ((long) score << (INDEX_BITS + MOVE_BITS))
+                    | ((long) (n - 1 - i) << MOVE_BITS) | move;
+            }
+            Arrays.sort(keys, 0, n);
+            for (int i = 0; i < n; i += 1) {
+                moves[i] = (int) keys[n - 1 - i] & ((1 << MOVE_BITS) - 1);
             }
         }
-        return best;
-    }
 
-    /** Return a heuristically determined maximum search depth
-     *  based on characteristics of BOARD. */
-    private int maxDepth(Board board) {
-        int N = board.numMoves();
-        if (N > THRESHOLD1) {
-            return 2;
-        } else if (N > THRESHOLD2) {
-            return 3;
-        } else if (N > THRESHOLD3) {
-            return 4;
-        } else if (N > THRESHOLD4) {
-            return 5;
+        /** Record that packed MOVE caused a beta cutoff at ply PLY of a
+         *  search of DEPTH plies, where FIRST indicates that MOVE was
+         *  the first move tried.  MOVE becomes PLY's first killer move,
+         *  and its history scores increase by DEPTH squared, so that
+         *  cutoffs found by deeper searches count for more. */
+        private void recordCutoff(int move, int depth, int ply,
+                                  boolean first) {
+            _cutoffs += 1;
+            if (first) {
+                _firstMoveCutoffs += 1;
+            }
+            int[] killers = _killers[ply];
+            if (killers[0] != move) {
+                System.arraycopy(killers, 0, killers, 1, KILLERS - 1);
+                killers[0] = move;
+            }
+            int to = Move.toIndex(move);
+            int queen = Move.fromIndex(move) * SQUARES + to,
+                arrow = to * SQUARES + Move.spearIndex(move);
+            _queenHistory[queen] += depth * depth;
+            _arrowHistory[arrow] += depth * depth;
+            if (_queenHistory[queen] > HISTORY_LIMIT
+                || _arrowHistory[arrow] > HISTORY_LIMIT) {
+                for (int i = 0; i < SQUARES * SQUARES; i += 1) {
+                    _queenHistory[i] /= 2;
+                    _arrowHistory[i] /= 2;
+                }
+            }
         }
-        return 1;
+
+        /** Search the positions reached from BOARD by MOVES[1] through
+         *  MOVES[N-1] in parallel, as for findMove(BOARD, DEPTH, SENSE,
+         *  ALPHA, BETA), given that the search of MOVES[0], which is
+         *  complete, gave BEST, and return the best value found.  Each
+         *  move is searched by a SplitTask forked onto the current
+         *  ForkJoinPool; idle threads steal them.  A cutoff aborts the
+         *  remaining tasks, and this method returns only when none of
+         *  them is still running.  Records the principal variation in
+         *  _pv as for findMove.  If the search is abandoned (see
+         *  stopped), returns a meaningless value. */
+        private int splitSearch(Board board, int[] moves, int n,
+                                int depth, int sense,
+                                int alpha, int beta, int best) {
+            int ply = board.numMoves() - _rootMoves;
+            SplitPoint split =
+                new SplitPoint(_split, board, _rootMoves, depth, sense,
+                               alpha, beta);
+            SplitTask[] tasks = new SplitTask[n];
+            for (int i = n - 1; i > 0; i -= 1) {
+                tasks[i] = new SplitTask(split, moves[i]);
+                tasks[i].fork();
+            }
+            for (int i = 1; i < n; i += 1) {
+                SplitTask task = tasks[i];
+                int response = task.join();
+                if (task.valid()
+                    && (sense == 1 ? response > best : response < best)) {
+                    best = response;
+                    int[] line = task.line();
+                    _pv[ply][ply] = moves[i];
+                    System.arraycopy(line, 0, _pv[ply], ply + 1,
+                                     line.length);
+                    _pvLength[ply] = line.length + 1;
+                }
+            }
+            return best;
+        }
+
+        /** Return the buffer for the moves generated at search ply
+         *  PLY, creating it on first use.  Buffers are reused across
+         *  searches so that move generation allocates nothing. */
+        private int[] moveBuffer(int ply) {
+            if (ply >= _moveBuffers.length) {
+                _moveBuffers = Arrays.copyOf(_moveBuffers, ply + 1);
+            }
+            if (_moveBuffers[ply] == null) {
+                _moveBuffers[ply] = new int[Board.MAX_MOVES];
+            }
+            return _moveBuffers[ply];
+        }
+
+        /** Move buffers, indexed by search ply. */
+        private int[][] _moveBuffers = new int[0][];
+
+        /** Triangular table of principal variations: _pv[p][p]
+         *  through _pv[p][p + _pvLength[p] - 1] is the best line found
+         *  from the current node at ply P. */
+        private final int[][] _pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+        /** Lengths of the lines in _pv, by ply. */
+        private final int[] _pvLength = new int[MAX_PLY + 1];
+        /** The principal variation from the last completed
+         *  iteration. */
+        private final int[] _prevPv = new int[MAX_PLY + 1];
+        /** Length of _prevPv. */
+        private int _prevPvLength;
+        /** True while the search is following _prevPv from the root. */
+        private boolean _followPv;
+        /** Value of numMoves() on the board at the root of the
+         *  search. */
+        private int _rootMoves;
+        /** Number of nodes I have visited. */
+        private long _nodes;
+        /** Number of beta cutoffs I have found, and the number of those
+         *  caused by the first move tried. */
+        private long _cutoffs, _firstMoveCutoffs;
+        /** The values of _nodes, _cutoffs, and _firstMoveCutoffs at my
+         *  last reportWork. */
+        private long _reportedNodes, _reportedCutoffs,
+            _reportedFirstMoveCutoffs;
+        /** Killer moves, by ply: _killers[p] holds the packed moves
+         *  that most recently caused cutoffs at ply P, most recent
+         *  first, or -1. */
+        private final int[][] _killers = new int[MAX_PLY + 1][KILLERS];
+        /** History scores of amazon moves, indexed by from * SQUARES +
+         *  to, and of spear throws, indexed by to * SQUARES + spear. */
+        private final int[]
+            _queenHistory = new int[SQUARES * SQUARES],
+            _arrowHistory = new int[SQUARES * SQUARES];
+        /** My static evaluator. */
+        private final Territory _territory = new Territory();
+        /** My endgame analyzer. */
+        private final RegionSolver _regions = new RegionSolver(_tablebase);
+        /** Work space for orderMoves. */
+        private final long[] _sortKeys = new long[Board.MAX_MOVES];
+        /** The split point whose child I am searching, or null if I am
+         *  searching from the root. */
+        private SplitPoint _split;
     }
 
+    /** A node whose younger children (all but the first) are being
+     *  searched in parallel by SplitTasks. */
+    private class SplitPoint {
+
+        /** A split point at BOARD, which is DEPTH plies from the leaves
+         *  of a search whose root had ROOTMOVES moves, with children to
+         *  be searched with SENSE and initial window ALPHA to BETA as
+         *  for Searcher.findMove.  PARENT is the split point enclosing
+         *  me, or null if none. */
+        SplitPoint(SplitPoint parent, Board board, int rootMoves,
+                   int depth, int sense, int alpha, int beta) {
+            _parent = parent;
+            _board = board;
+            _rootMoves = rootMoves;
+            _depth = depth;
+            _sense = sense;
+            _alpha = alpha;
+            _beta = beta;
+        }
+
+        /** Return true iff my search, or that of an enclosing split
+         *  point, has been cut off. */
+        boolean aborted() {
+            for (SplitPoint p = this; p != null; p = p._parent) {
+                if (p._aborted) {
+                    return true;
+                }
+            }
+            return false;
+        }
 
-    /** Return a heuristic value for BOARD. */
-    private int staticScore(Board board) {
-        Piece winner = board.winner();
-        if (winner == BLACK) {
-            return -WINNING_VALUE;
-        } else if (winner == WHITE) {
-            return WINNING_VALUE;
+        /** Return the current lower bound of my window. */
+        synchronized int alpha() {
+            return _alpha;
         }
 
-        Iterator<Move> max = board.legalMoves(WHITE);
-        Iterator<Move> min = board.legalMoves(BLACK);
+        /** Return the current upper bound of my window. */
+        synchronized int beta() {
+            return _beta;
+        }
+
+        /** Narrow my window to account for a child with value VALUE,
+         *  aborting my remaining children if that causes a cutoff. */
+        synchronized void narrow(int value) {
+            if (_sense == 1) {
+                _alpha = max(_alpha, value);
+            } else {
+                _beta = min(_beta, value);
+            }
+            if (_beta <= _alpha) {
+                _aborted = true;
+            }
+        }
+
+        /** The split point enclosing me, or null. */
+        private final SplitPoint _parent;
+        /** My position.  It does not change until all my tasks are
+         *  done, so they may copy it. */
+        private final Board _board;
+        /** Value of numMoves() on the board at the root of the
+         *  search. */
+        private final int _rootMoves;
+        /** My remaining depth and the sense of my player. */
+        private final int _depth, _sense;
+        /** My current window. */
+        private int _alpha, _beta;
+        /** True iff a cutoff makes my remaining children irrelevant. */
+        private volatile boolean _aborted;
+    }
+
+    /** The search of one child of a SplitPoint, yielding its value. */
+    private class SplitTask extends RecursiveTask<Integer> {
 
-        int wmoves = 0;
-        int bmoves = 0;
+        /** Required of a Serializable class; SplitTasks are never
+         *  serialized. */
+        private static final long serialVersionUID = 1L;
 
-        while (max.hasNext()) {
-            wmoves += 1;
-            max.next();
+        /** A task searching the position reached by packed MOVE from
+         *  SPLIT. */
+        SplitTask(SplitPoint split, int move) {
+            _split = split;
+            _move = move;
         }
-        while (min.hasNext()) {
-            bmoves += 1;
-            min.next();
+
+        @Override
+        protected Integer compute() {
+            if (System.nanoTime() > _deadline) {
+                _stopped = true;
+            }
+            if (_stopped || _split.aborted()) {
+                return 0;
+            }
+            Searcher searcher = acquireSearcher();
+            try {
+                Board board = new Board(_split._board);
+                board.makeMove(_move);
+                int ply = board.numMoves() - _split._rootMoves;
+                searcher._split = _split;
+                searcher._rootMoves = _split._rootMoves;
+                searcher._followPv = false;
+                int value =
+                    searcher.findMove(board, _split._depth - 1,
+                                      -_split._sense, _split.alpha(),
+                                      _split.beta());
+                searcher.reportWork();
+                if (searcher.stopped()) {
+                    return 0;
+                }
+                _line = Arrays.copyOfRange(searcher._pv[ply], ply,
+                                           ply + searcher._pvLength[ply]);
+                _valid = true;
+                _split.narrow(value);
+                return value;
+            } finally {
+                releaseSearcher(searcher);
+            }
         }
-        return wmoves - bmoves;
+
+        /** Return true iff my search finished, so that my value is
+         *  meaningful. */
+        boolean valid() {
+            return _valid;
+        }
+
+        /** Return the principal variation found by my search, starting
+         *  after my move. */
+        int[] line() {
+            return _line;
+        }
+
+        /** The split point whose child I search. */
+        private final SplitPoint _split;
+        /** The packed move leading to my position. */
+        private final int _move;
+        /** True iff my search finished. */
+        private boolean _valid;
+        /** My principal variation. */
+        private int[] _line;
     }
 
+    /** Time (System.nanoTime) after which no new iteration starts. */
+    private long _softDeadline;
+    /** Time (System.nanoTime) by which the current search must end. */
+    private long _deadline;
+    /** True iff the current search has ended, either because it ran out
+     *  of time or, for helper threads, because the main search is
+     *  done. */
+    private volatile boolean _stopped;
+    /** The main thread's search state, created on first use. */
+    private Searcher _searcher;
+    /** The helper threads' search states, created on first use. */
+    private Searcher[] _helperSearchers;
+    /** Searchers available to SplitTasks. */
+    private final ConcurrentLinkedDeque<Searcher> _idleSearchers =
+        new ConcurrentLinkedDeque<>();
+    /** Nodes visited by each thread during the last search, keyed by
+     *  thread name. */
+    private final Map<String, Long> _nodeCounts = new ConcurrentHashMap<>();
+    /** Numbers of beta cutoffs found during the last search, in all,
+     *  and by the first move tried. */
+    private final LongAdder _cutoffCount = new LongAdder(),
+        _firstMoveCutoffCount = new LongAdder();
 
+    /** My settings. */
+    private final SearchConfig _config;
+    /** Cache of static evaluations, shared with my template. */
+    private final EvalCache _evalCache;
+    /** Transposition table, shared with my template and with every
+     *  thread searching for me. */
+    private final TranspositionTable _table;
+    /** Table of small settled regions, shared with my template, or
+     *  null if there is none. */
+    private final Tablebase _tablebase;
+    /** Book of opening moves, shared with my template, or null if
+     *  there is none. */
+    private final OpeningBook _book;
+    /** Threads for helper searches, shared with my template, or null if
+     *  I search on one thread. */
+    private final ExecutorService _helperThreads;
+    /** Threads for a Young Brothers Wait search, shared with my
+     *  template, or null if I do not use one. */
+    private final ForkJoinPool _splitPool;
 }
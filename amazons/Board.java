@@ -5,9 +5,12 @@ package amazons;
 *  file is sacred.  If any of it confuses you, throw it out and do it your way.
 */
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
 
 import static amazons.Piece.EMPTY;
 import static amazons.Piece.WHITE;
@@ -22,6 +25,15 @@ class Board {
     /** The number of squares on a side of the board. */
     static final int SIZE = 10;
 
+    /** An upper bound on the number of legal moves for one side in any
+     *  position: four amazons, each with at most 35 destinations and at
+     *  most 35 spear throws from each. */
+    static final int MAX_MOVES = 4 * 35 * 35;
+
+    /** The largest possible number of amazon moves (not counting spear
+     *  throws) available to one side. */
+    static final int MAX_AMAZON_MOVES = 4 * 35;
+
     /** Initializes a game board with SIZE squares on a side in the
      *  initial position. */
     Board() {
@@ -33,35 +45,40 @@ class Board {
         copy(model);
     }
 
-    /** Copies MODEL into me. */
+    /** Copies MODEL into me.  Afterwards, changes to either board
+     *  (including its move history) do not affect the other. */
     void copy(Board model) {
-        _moves = model._moves;
+        if (model == this) {
+            return;
+        }
+        System.arraycopy(model._lo, 0, _lo, 0, _lo.length);
+        System.arraycopy(model._hi, 0, _hi, 0, _hi.length);
+        System.arraycopy(model._moves, 0, _moves, 0, model._numMoves);
+        _numMoves = model._numMoves;
         _turn = model._turn;
-        _winner = EMPTY;
+        _key = model._key;
+        _winner = model._winner;
     }
 
     /** Clears the board to the initial position. */
     void init() {
-        _moves = new ArrayList<>();
+        _numMoves = 0;
         _turn = WHITE;
+        _key = 0;
         _winner = EMPTY;
 
-        for (int r = 0; r < Board.SIZE; r++) {
-            for (int c = 0; c < Board.SIZE; c++) {
-                Square s = Square.sq(c, r);
-                s.setPiece(EMPTY);
-            }
-        }
+        Arrays.fill(_lo, 0L);
+        Arrays.fill(_hi, 0L);
 
-        Square.sq(0, 3).setPiece(WHITE);
-        Square.sq(9, 3).setPiece(WHITE);
-        Square.sq(3, 0).setPiece(WHITE);
-        Square.sq(6, 0).setPiece(WHITE);
+        put(WHITE, 0, 3);
+        put(WHITE, 9, 3);
+        put(WHITE, 3, 0);
+        put(WHITE, 6, 0);
 
-        Square.sq(0, 6).setPiece(BLACK);
-        Square.sq(9, 6).setPiece(BLACK);
-        Square.sq(3, 9).setPiece(BLACK);
-        Square.sq(6, 9).setPiece(BLACK);
+        put(BLACK, 0, 6);
+        put(BLACK, 9, 6);
+        put(BLACK, 3, 9);
+        put(BLACK, 6, 9);
 
     }
 
@@ -70,25 +87,116 @@ class Board {
         return _turn;
     }
 
+    /** Return the Zobrist hash key of the current position: the XOR of a
+     *  fixed random number for each (piece, square) pair present on the
+     *  board, and of another for BLACK to move.  Equal positions reached
+     *  by different sequences of moves have equal keys. */
+    long key() {
+        return _key;
+    }
+
+    /** Return the least of the keys (see key) of the images of the
+     *  current position under the symmetries of the board (see
+     *  Square.symmetric), so that positions that are equivalent by
+     *  symmetry have equal canonical keys. */
+    long canonicalKey() {
+        return symmetricKey(canonicalSymmetry());
+    }
+
+    /** Return a symmetry that carries the current position to a
+     *  position whose key is canonicalKey(). */
+    int canonicalSymmetry() {
+        int result = 0;
+        long least = _key;
+        for (int sym = 1; sym < Square.SYMMETRIES; sym += 1) {
+            long key = symmetricKey(sym);
+            if (key < least) {
+                least = key;
+                result = sym;
+            }
+        }
+        return result;
+    }
+
+    /** Return the key of the image of the current position under
+     *  symmetry SYM. */
+    private long symmetricKey(int sym) {
+        long result = _turn == BLACK ? BLACK_TO_MOVE_KEY : 0;
+        for (Piece p : LAYERS) {
+            for (int w = 0; w < 2; w += 1) {
+                long bits = w == 0 ? _lo[p.ordinal()] : _hi[p.ordinal()];
+                while (bits != 0) {
+                    int k = w * LO_BITS + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    result ^=
+                        PIECE_KEYS[p.ordinal()][Square.symmetric(sym, k)];
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff symmetry SYM carries the current position to
+     *  itself. */
+    boolean isSymmetric(int sym) {
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            if (get(k) != get(Square.symmetric(sym, k))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Remove from the first N packed MOVES all but one of each set of
+     *  moves that some symmetry carrying the current position to itself
+     *  carries to one another, since those lead to equivalent positions.
+     *  Keeps the order of the remaining moves, and returns their
+     *  number. */
+    int uniqueMoves(int[] moves, int n) {
+        int[] syms = new int[Square.SYMMETRIES];
+        int nsyms = 0;
+        for (int sym = 1; sym < Square.SYMMETRIES; sym += 1) {
+            if (isSymmetric(sym)) {
+                syms[nsyms] = sym;
+                nsyms += 1;
+            }
+        }
+        if (nsyms == 0) {
+            return n;
+        }
+        int result = 0;
+    next:
+        for (int i = 0; i < n; i += 1) {
+            for (int j = 0; j < nsyms; j += 1) {
+                if (Move.symmetric(syms[j], moves[i]) < moves[i]) {
+                    continue next;
+                }
+            }
+            moves[result] = moves[i];
+            result += 1;
+        }
+        return result;
+    }
+
     /** Return the number of moves (that have not been undone) for this
      *  board. */
     int numMoves() {
-        return _moves.size();
+        return _numMoves;
     }
 
     /** Return the winner in the current position, or null if the game is
-     *  not yet finished. */
+     *  not yet finished.  The result is cached until the board next
+     *  changes. */
     Piece winner() {
-        Iterator<Move> cur = legalMoves();
-        if (!cur.hasNext()) {
-            return _turn.opponent();
+        if (_winner == EMPTY) {
+            _winner = hasMove(_turn) ? null : _turn.opponent();
         }
-        return null;
+        return _winner;
     }
 
     /** Return the contents the square at S. */
     final Piece get(Square s) {
-        return s.piece();
+        return get(s.index());
     }
 
     /** Return the contents of the square at (COL, ROW), where
@@ -98,7 +206,7 @@ class Board {
             throw new IndexOutOfBoundsException(
                     "Can't get square out of bounds");
         }
-        return Square.sq(col, row).piece();
+        return get(Square.sq(col, row));
     }
 
     /** Return the contents of the square at COL ROW. */
@@ -106,16 +214,32 @@ class Board {
         return get(col - 'a', row - '1');
     }
 
+    /** Return the contents of the square with index INDEX. */
+    private Piece get(int index) {
+        for (Piece p : LAYERS) {
+            if (isSet(_lo[p.ordinal()], _hi[p.ordinal()], index)) {
+                return p;
+            }
+        }
+        return EMPTY;
+    }
+
     /** Set square S to P. */
     final void put(Piece p, Square s) {
-        s.setPiece(p);
-        _winner = null;
+        int index = s.index();
+        Piece old = get(index);
+        if (old != EMPTY) {
+            clear(old, index);
+        }
+        if (p != EMPTY) {
+            set(p, index);
+        }
+        _winner = EMPTY;
     }
 
     /** Set square (COL, ROW) to P. */
     final void put(Piece p, int col, int row) {
-        Square.sq(col, row).setPiece(p);
-        _winner = null;
+        put(p, Square.sq(col, row));
     }
 
     /** Set square COL ROW to P. */
@@ -130,33 +254,31 @@ class Board {
      *  empty. ASEMPTY may be null, in which case it has no effect. */
     boolean isUnblockedMove(Square from, Square to, Square asEmpty) {
         if (!from.isQueenMove(to)) {
-            System.out.println(from.col() + " " + from.row());
-            System.out.println(to.col() + " " + to.row());
             throw new IllegalArgumentException("Illegal move passed");
         }
-        int dir = from.direction(to);
-        from = from.queenMove(dir, 1);
-        while (!from.equals(to)) {
-            if (!(from.piece() == EMPTY) && !(from == asEmpty)) {
+        int[] ray = Square.ray(from.index(), from.direction(to));
+        int target = to.index();
+        int empty = asEmpty == null ? -1 : asEmpty.index();
+        for (int k : ray) {
+            if (occupied(k) && k != empty) {
                 return false;
             }
-            from = from.queenMove(dir, 1);
-        }
-        if (to.piece() == EMPTY || to == asEmpty) {
-            return true;
+            if (k == target) {
+                return true;
+            }
         }
-        return false;
+        throw new IllegalStateException("queen move off its ray");
     }
 
     /** Return true iff FROM is a valid starting square for a move. */
     boolean isLegal(Square from) {
-        return from.piece() == _turn;
+        return get(from) == _turn;
     }
 
     /** Return true iff FROM-TO is a valid first part of move, ignoring
      *  spear throwing. */
     boolean isLegal(Square from, Square to) {
-        return isLegal(from) && from.isQueenMove(to) && to.piece() == EMPTY;
+        return isLegal(from) && from.isQueenMove(to) && get(to) == EMPTY;
     }
 
     /** Return true iff FROM-TO(SPEAR) is a legal move in the current
@@ -174,28 +296,44 @@ class Board {
 
     /** Move FROM-TO(SPEAR), assuming this is a legal move. */
     void makeMove(Square from, Square to, Square spear) {
-        _moves.add(Move.mv(from, to, spear));
-        to.setPiece(from.piece());
-        from.setPiece(EMPTY);
-        spear.setPiece(SPEAR);
-        _turn = _turn.opponent();
+        makeMove(Move.pack(from.index(), to.index(), spear.index()));
     }
 
     /** Move according to MOVE, assuming it is a legal move. */
     void makeMove(Move move) {
-        makeMove(move.from(), move.to(), move.spear());
+        makeMove(move.pack());
+    }
+
+    /** Move according to the packed move MOVE (see Move.pack), assuming
+     *  it is a legal move. */
+    void makeMove(int move) {
+        int from = Move.fromIndex(move), to = Move.toIndex(move);
+        _moves[_numMoves] = move;
+        _numMoves += 1;
+        Piece mover = get(from);
+        clear(mover, from);
+        set(mover, to);
+        set(SPEAR, Move.spearIndex(move));
+        _turn = _turn.opponent();
+        _key ^= BLACK_TO_MOVE_KEY;
+        _winner = EMPTY;
     }
 
     /** Undo one move.  Has no effect on the initial board. */
     void undo() {
-        if (_moves.size() == 0) {
+        if (_numMoves == 0) {
             return;
         }
-        Move m = _moves.remove(_moves.size() - 1);
-        m.spear().setPiece(EMPTY);
-        m.from().setPiece(m.to().piece());
-        m.to().setPiece(EMPTY);
+        _numMoves -= 1;
+        int move = _moves[_numMoves];
+        int from = Move.fromIndex(move), to = Move.toIndex(move);
+        clear(SPEAR, Move.spearIndex(move));
+        Piece mover = get(to);
+        clear(mover, to);
+        set(mover, from);
         _turn = _turn.opponent();
+        _key ^= BLACK_TO_MOVE_KEY;
+        _winner = EMPTY;
     }
 
     /** Return an Iterator over the Squares that are reachable by an
@@ -220,16 +358,441 @@ class Board {
         return new LegalMoveIterator(side);
     }
 
+    /** Store all legal moves for SIDE (regardless of whose turn it is)
+     *  in MOVES, packed as by Move.pack, and return their number.  The
+     *  moves appear in the same order as they would from legalMoves(SIDE).
+     *  MOVES must have room for MAX_MOVES entries.  Allocates nothing. */
+    int legalMoves(Piece side, int[] moves) {
+        return legalMoves(side, moves, -1L, -1L);
+    }
+
+    /** Store the legal moves for SIDE (regardless of whose turn it is)
+     *  by amazons on the squares in the mask with words FROMLO and
+     *  FROMHI in MOVES, as for legalMoves(SIDE, MOVES), and return
+     *  their number. */
+    int legalMoves(Piece side, int[] moves, long fromLo, long fromHi) {
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        int n = 0;
+        for (int w = 0; w < 2; w += 1) {
+            long amazons =
+                w == 0 ? _lo[side.ordinal()] & fromLo
+                : _hi[side.ordinal()] & fromHi;
+            while (amazons != 0) {
+                int from = w * LO_BITS + Long.numberOfTrailingZeros(amazons);
+                amazons &= amazons - 1;
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int to : Square.ray(from, dir)) {
+                        if (isSet(occLo, occHi, to)) {
+                            break;
+                        }
+                        for (int sdir = 0; sdir < 8; sdir += 1) {
+                            for (int spear : Square.ray(to, sdir)) {
+                                if (spear != from
+                                    && isSet(occLo, occHi, spear)) {
+                                    break;
+                                }
+                                moves[n] = Move.pack(from, to, spear);
+                                n += 1;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Store in MOVES a selection of the legal moves for SIDE
+     *  (regardless of whose turn it is), packed as by Move.pack, and
+     *  return their number.  The selection is made in two stages.
+     *  First, each amazon move is scored by the number of squares the
+     *  amazon can reach from its destination, and the best QUEENS of
+     *  them are kept.  Then the spear throws after each of those are
+     *  scored by how closely they hem in the opposing amazons (see
+     *  spearScore), and the best ARROWS of them are kept.  QUEENS or
+     *  ARROWS <= 0 means keep all.  Moves appear best amazon move
+     *  first, and within each amazon move, best spear throw first, ties
+     *  being broken in the order of legalMoves(SIDE).  MOVES must have
+     *  room for MAX_MOVES entries. */
+    int selectedMoves(Piece side, int[] moves, int queens, int arrows) {
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        if (_queenKeys == null) {
+            _queenKeys = new long[MAX_AMAZON_MOVES];
+            _spears = new int[MAX_AMAZON_MOVES];
+        }
+        long[] keys = _queenKeys;
+        int nq = 0;
+        for (int w = 0; w < 2; w += 1) {
+            long amazons =
+                w == 0 ? _lo[side.ordinal()] : _hi[side.ordinal()];
+            while (amazons != 0) {
+                int from = w * LO_BITS + Long.numberOfTrailingZeros(amazons);
+                amazons &= amazons - 1;
+                long lo = occLo, hi = occHi;
+                if (from < LO_BITS) {
+                    lo &= ~(1L << from);
+                } else {
+                    hi &= ~(1L << (from - LO_BITS));
+                }
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int to : Square.ray(from, dir)) {
+                        if (isSet(lo, hi, to)) {
+                            break;
+                        }
+                        keys[nq] = ((long) reachCount(to, lo, hi) << 32)
+                            | ((long) (MAX_AMAZON_MOVES - nq) << 16)
+                            | (from << 7) | to;
+                        nq += 1;
+                    }
+                }
+            }
+        }
+        Arrays.sort(keys, 0, nq);
+        if (queens <= 0 || queens > nq) {
+            queens = nq;
+        }
+
+        Piece opponent = side.opponent();
+        long nearLo = 0, nearHi = 0, reachLo = 0, reachHi = 0;
+        for (int w = 0; w < 2; w += 1) {
+            long amazons =
+                w == 0 ? _lo[opponent.ordinal()] : _hi[opponent.ordinal()];
+            while (amazons != 0) {
+                int k = w * LO_BITS + Long.numberOfTrailingZeros(amazons);
+                amazons &= amazons - 1;
+                nearLo |= NEIGHBORS_LO[k];
+                nearHi |= NEIGHBORS_HI[k];
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int t : Square.ray(k, dir)) {
+                        if (isSet(occLo, occHi, t)) {
+                            break;
+                        }
+                        if (t < LO_BITS) {
+                            reachLo |= 1L << t;
+                        } else {
+                            reachHi |= 1L << (t - LO_BITS);
+                        }
+                    }
+                }
+            }
+        }
+
+        int n = 0;
+        int[] spears = _spears;
+        for (int q = nq - 1; q >= nq - queens; q -= 1) {
+            int from = (int) (keys[q] >>> 7) & 0x7f,
+                to = (int) keys[q] & 0x7f;
+            int ns = 0;
+            for (int sdir = 0; sdir < 8; sdir += 1) {
+                for (int spear : Square.ray(to, sdir)) {
+                    if (spear != from && isSet(occLo, occHi, spear)) {
+                        break;
+                    }
+                    spears[ns] = spear;
+                    ns += 1;
+                }
+            }
+            int kept = arrows <= 0 || arrows > ns ? ns : arrows;
+            int n0 = n;
+            for (int score = MAX_SPEAR_SCORE; n - n0 < kept; score -= 1) {
+                for (int i = 0; i < ns && n - n0 < kept; i += 1) {
+                    int spear = spears[i];
+                    if (spearScore(spear, to, nearLo, nearHi,
+                                   reachLo, reachHi) == score) {
+                        moves[n] = Move.pack(from, to, spear);
+                        n += 1;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Return the score used by selectedMoves for a spear thrown to the
+     *  square with index SPEAR by an amazon on the square with index
+     *  TO, where the squares next to the opposing amazons are those in
+     *  the mask with words NEARLO and NEARHI and the squares they can
+     *  reach are those in the mask with words REACHLO and REACHHI.
+     *  Blocking squares next to an opposing amazon scores 2, and
+     *  squares it could reach 1; a spear next to the thrower costs 1.
+     *  Scores range from 0 to MAX_SPEAR_SCORE. */
+    private static int spearScore(int spear, int to, long nearLo,
+                                  long nearHi, long reachLo,
+                                  long reachHi) {
+        int score = 1;
+        if (isSet(nearLo, nearHi, spear)) {
+            score += 2;
+        }
+        if (isSet(reachLo, reachHi, spear)) {
+            score += 1;
+        }
+        if (isSet(NEIGHBORS_LO[to], NEIGHBORS_HI[to], spear)) {
+            score -= 1;
+        }
+        return score;
+    }
+
+    /** Store in LO and HI the low and high words of the masks of the
+     *  regions of this board, and return their number.  A region is a
+     *  set of squares not holding spears that are connected by king
+     *  moves, so that no amazon can move or throw a spear from one
+     *  region into another.  LO and HI must have room for SIZE * SIZE
+     *  entries. */
+    int regions(long[] lo, long[] hi) {
+        long openLo = maskLo(EMPTY) | _lo[WHITE.ordinal()]
+            | _lo[BLACK.ordinal()];
+        long openHi = maskHi(EMPTY) | _hi[WHITE.ordinal()]
+            | _hi[BLACK.ordinal()];
+        int n = 0;
+        while ((openLo | openHi) != 0) {
+            long frontLo = Long.lowestOneBit(openLo),
+                frontHi = frontLo != 0 ? 0 : Long.lowestOneBit(openHi);
+            long regionLo = 0, regionHi = 0;
+            while ((frontLo | frontHi) != 0) {
+                int k;
+                if (frontLo != 0) {
+                    k = Long.numberOfTrailingZeros(frontLo);
+                    frontLo &= frontLo - 1;
+                    regionLo |= 1L << k;
+                } else {
+                    k = LO_BITS + Long.numberOfTrailingZeros(frontHi);
+                    frontHi &= frontHi - 1;
+                    regionHi |= 1L << (k - LO_BITS);
+                }
+                frontLo |= NEIGHBORS_LO[k] & openLo & ~regionLo;
+                frontHi |= NEIGHBORS_HI[k] & openHi & ~regionHi;
+            }
+            lo[n] = regionLo;
+            hi[n] = regionHi;
+            n += 1;
+            openLo &= ~regionLo;
+            openHi &= ~regionHi;
+        }
+        return n;
+    }
+
+    /** Return the number of legal moves for SIDE (regardless of whose
+     *  turn it is), without generating them.  For each amazon, this is
+     *  the sum over the squares it can reach of the number of squares
+     *  reachable from there with the amazon's square treated as empty,
+     *  so the cost is proportional to the number of reachable squares
+     *  rather than the number of moves. */
+    int mobility(Piece side) {
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        int total = 0;
+        for (int w = 0; w < 2; w += 1) {
+            long amazons =
+                w == 0 ? _lo[side.ordinal()] : _hi[side.ordinal()];
+            while (amazons != 0) {
+                int from = w * LO_BITS + Long.numberOfTrailingZeros(amazons);
+                amazons &= amazons - 1;
+                long lo = occLo, hi = occHi;
+                if (from < LO_BITS) {
+                    lo &= ~(1L << from);
+                } else {
+                    hi &= ~(1L << (from - LO_BITS));
+                }
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int to : Square.ray(from, dir)) {
+                        if (isSet(lo, hi, to)) {
+                            break;
+                        }
+                        total += reachCount(to, lo, hi);
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    /** Return a legal move for SIDE (regardless of whose turn it is),
+     *  packed as by Move.pack, chosen uniformly at random from all of
+     *  them, or -1 if there are none.  RANDOM supplies the randomness:
+     *  given U, it returns a random integer from 0 to U - 1, as does
+     *  Controller.randInt.
+     *
+     *  Rather than generating all the moves, this lists the amazon
+     *  moves, giving each a share of a random draw equal to the number
+     *  of squares on the queen lines from its destination (an upper
+     *  bound on its spear throws, found by table lookup).  The draw
+     *  picks an amazon move and a position within its share.  The spear
+     *  throws are then counted, and if the position is less than their
+     *  number, it selects the throw; otherwise the draw is repeated.
+     *  Every move is thus equally likely on every draw, and a draw
+     *  usually succeeds, so the cost is close to that of counting the
+     *  spear throws after a single amazon move. */
+    int randomMove(Piece side, IntUnaryOperator random) {
+        if (_queenMoves == null) {
+            _queenMoves = new int[MAX_AMAZON_MOVES];
+            _throwBounds = new int[MAX_AMAZON_MOVES];
+        }
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        int nq = 0, total = 0;
+        for (int w = 0; w < 2; w += 1) {
+            long amazons =
+                w == 0 ? _lo[side.ordinal()] : _hi[side.ordinal()];
+            while (amazons != 0) {
+                int from = w * LO_BITS + Long.numberOfTrailingZeros(amazons);
+                amazons &= amazons - 1;
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int to : Square.ray(from, dir)) {
+                        if (isSet(occLo, occHi, to)) {
+                            break;
+                        }
+                        total += THROW_BOUNDS[to];
+                        _queenMoves[nq] = (from << 7) | to;
+                        _throwBounds[nq] = total;
+                        nq += 1;
+                    }
+                }
+            }
+        }
+        if (nq == 0) {
+            return -1;
+        }
+        while (true) {
+            int r = random.applyAsInt(total);
+            int q = 0;
+            while (r >= _throwBounds[q]) {
+                q += 1;
+            }
+            r -= _throwBounds[q] - THROW_BOUNDS[_queenMoves[q] & 0x7f];
+            int from = _queenMoves[q] >>> 7, to = _queenMoves[q] & 0x7f;
+            long lo = occLo, hi = occHi;
+            if (from < LO_BITS) {
+                lo &= ~(1L << from);
+            } else {
+                hi &= ~(1L << (from - LO_BITS));
+            }
+            for (int dir = 0; dir < 8; dir += 1) {
+                for (int spear : Square.ray(to, dir)) {
+                    if (isSet(lo, hi, spear)) {
+                        break;
+                    }
+                    if (r == 0) {
+                        return Move.pack(from, to, spear);
+                    }
+                    r -= 1;
+                }
+            }
+        }
+    }
+
+    /** Return true iff SIDE (regardless of whose turn it is) has at
+     *  least one legal move.  Any amazon that can move at all can throw
+     *  a spear back to where it came from, so this is true iff some
+     *  amazon of SIDE has an empty neighbor, which takes one mask test
+     *  per amazon. */
+    boolean hasMove(Piece side) {
+        long emptyLo = ~occupiedLo(), emptyHi = ~occupiedHi();
+        for (int w = 0; w < 2; w += 1) {
+            long amazons =
+                w == 0 ? _lo[side.ordinal()] : _hi[side.ordinal()];
+            while (amazons != 0) {
+                int from = w * LO_BITS + Long.numberOfTrailingZeros(amazons);
+                amazons &= amazons - 1;
+                if ((NEIGHBORS_LO[from] & emptyLo) != 0
+                    || (NEIGHBORS_HI[from] & emptyHi) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the number of squares reachable by an unblocked queen move
+     *  from the square with index FROM, given that the occupied squares
+     *  are those in the mask with low and high words OCCLO and OCCHI. */
+    private static int reachCount(int from, long occLo, long occHi) {
+        int n = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            for (int k : Square.ray(from, dir)) {
+                if (isSet(occLo, occHi, k)) {
+                    break;
+                }
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return the low word of the mask of squares holding P, where P
+     *  may be EMPTY: bit k is set iff square k (0 <= k < 64) holds P. */
+    long maskLo(Piece p) {
+        if (p == EMPTY) {
+            return ~occupiedLo();
+        }
+        return _lo[p.ordinal()];
+    }
+
+    /** Return the high word of the mask of squares holding P, where P
+     *  may be EMPTY: bit k is set iff square k + 64 holds P. */
+    long maskHi(Piece p) {
+        if (p == EMPTY) {
+            return ~occupiedHi() & HI_SQUARES;
+        }
+        return _hi[p.ordinal()];
+    }
+
+    /** Return true iff the square with index INDEX holds any piece. */
+    private boolean occupied(int index) {
+        return isSet(occupiedLo(), occupiedHi(), index);
+    }
+
+    /** Return the low word of the mask of all occupied squares. */
+    private long occupiedLo() {
+        return _lo[WHITE.ordinal()] | _lo[BLACK.ordinal()]
+            | _lo[SPEAR.ordinal()];
+    }
+
+    /** Return the high word of the mask of all occupied squares. */
+    private long occupiedHi() {
+        return _hi[WHITE.ordinal()] | _hi[BLACK.ordinal()]
+            | _hi[SPEAR.ordinal()];
+    }
+
+    /** Add the square with index INDEX, which must not already be in
+     *  it, to the layer for P. */
+    private void set(Piece p, int index) {
+        if (index < LO_BITS) {
+            _lo[p.ordinal()] |= 1L << index;
+        } else {
+            _hi[p.ordinal()] |= 1L << (index - LO_BITS);
+        }
+        _key ^= PIECE_KEYS[p.ordinal()][index];
+    }
+
+    /** Remove the square with index INDEX, which must be in it, from the
+     *  layer for P. */
+    private void clear(Piece p, int index) {
+        if (index < LO_BITS) {
+            _lo[p.ordinal()] &= ~(1L << index);
+        } else {
+            _hi[p.ordinal()] &= ~(1L << (index - LO_BITS));
+        }
+        _key ^= PIECE_KEYS[p.ordinal()][index];
+    }
+
+    /** Return true iff the square with index INDEX is in the mask whose
+     *  low and high words are LO and HI. */
+    private static boolean isSet(long lo, long hi, int index) {
+        if (index < LO_BITS) {
+            return (lo & (1L << index)) != 0;
+        }
+        return (hi & (1L << (index - LO_BITS))) != 0;
+    }
+
     /** An iterator used by reachableFrom. */
     private class ReachableFromIterator implements Iterator<Square> {
 
         /** Iterator of all squares reachable by queen move from FROM,
          *  treating ASEMPTY as empty. */
         ReachableFromIterator(Square from, Square asEmpty) {
-            _from = from;
-            _dir = -1;
+            _from = from.index();
+            _dir = 0;
+            _ray = Square.ray(_from, 0);
             _steps = 0;
-            _asEmpty = asEmpty;
+            _asEmpty = asEmpty == null ? -1 : asEmpty.index();
             toNext();
         }
 
@@ -240,7 +803,10 @@ class Board {
 
         @Override
         public Square next() {
-            Square nSquare = _from.queenMove(_dir, _steps);
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Square nSquare = Square.sq(_ray[_steps - 1]);
             toNext();
             return nSquare;
         }
@@ -248,27 +814,33 @@ class Board {
         /** Advance _dir and _steps, so that the next valid Square is
          *  _steps steps in direction _dir from _from. */
         private void toNext() {
-            if (!hasNext()) {
-                return;
-            }
-            Square ns = _from.queenMove(_dir, _steps + 1);
-            if (ns == null || (ns.piece() != EMPTY && ns != _asEmpty)) {
+            while (true) {
+                if (_steps < _ray.length) {
+                    int k = _ray[_steps];
+                    if (k == _asEmpty || !occupied(k)) {
+                        _steps += 1;
+                        return;
+                    }
+                }
                 _dir += 1;
                 _steps = 0;
-                toNext();
-                return;
+                if (_dir == 8) {
+                    return;
+                }
+                _ray = Square.ray(_from, _dir);
             }
-            _steps += 1;
         }
 
-        /** Starting square. */
-        private Square _from;
+        /** Index of the starting square. */
+        private int _from;
         /** Current direction. */
         private int _dir;
+        /** The squares in direction _dir from _from. */
+        private int[] _ray;
         /** Current distance. */
         private int _steps;
-        /** Square treated as empty. */
-        private Square _asEmpty;
+        /** Index of the square treated as empty, or -1. */
+        private int _asEmpty;
     }
 
     /** An iterator used by legalMoves. */
@@ -276,88 +848,68 @@ class Board {
 
         /** All legal moves for SIDE (WHITE or BLACK). */
         LegalMoveIterator(Piece side) {
-            _startingSquares = Square.iterator();
-            _start = null;
+            _amazonsLo = _lo[side.ordinal()];
+            _amazonsHi = _hi[side.ordinal()];
             _pieceMoves = NO_SQUARES;
             _spearThrows = NO_SQUARES;
-            _fromPiece = side;
-            _j10 = Square.sq(9, 9);
             toNext();
         }
 
         @Override
         public boolean hasNext() {
-            if (_last) {
-                _last = false;
-                return true;
-            }
-            return _startingSquares.hasNext()
-                    || _spearThrows.hasNext()
-                    || _pieceMoves.hasNext()
-                    || _last;
+            return _spear != null;
         }
 
         @Override
         public Move next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
             Move m = Move.mv(_start, _nextSquare, _spear);
             toNext();
             return m;
         }
 
         /** Advance so that the next valid Move is
-         *  _start-_nextSquare(sp), where sp is the next value of
-         *  _spearThrows. */
+         *  _start-_nextSquare(_spear), setting _spear to null if there
+         *  are no more moves. */
         private void toNext() {
-            if (!_pieceMoves.hasNext() && !_spearThrows.hasNext()) {
-                if (_startingSquares.hasNext()) {
-                    _start = _startingSquares.next();
-                } else {
-                    return;
-                }
-                while (_start.piece() != _fromPiece
-                        && _startingSquares.hasNext()) {
-                    _start = _startingSquares.next();
-                }
-                if (_start.piece() == _fromPiece) {
+            while (!_spearThrows.hasNext()) {
+                while (!_pieceMoves.hasNext()) {
+                    if (_amazonsLo != 0) {
+                        _start = Square.sq(
+                            Long.numberOfTrailingZeros(_amazonsLo));
+                        _amazonsLo &= _amazonsLo - 1;
+                    } else if (_amazonsHi != 0) {
+                        _start = Square.sq(LO_BITS
+                            + Long.numberOfTrailingZeros(_amazonsHi));
+                        _amazonsHi &= _amazonsHi - 1;
+                    } else {
+                        _spear = null;
+                        return;
+                    }
                     _pieceMoves = reachableFrom(_start, null);
                 }
-                toNext();
-                return;
-            }
-            if (_pieceMoves.hasNext() && !_spearThrows.hasNext()) {
                 _nextSquare = _pieceMoves.next();
                 _spearThrows = reachableFrom(_nextSquare, _start);
-                toNext();
-                return;
-            }
-            if (_spearThrows.hasNext()) {
-                _spear = _spearThrows.next();
-                if (_spear == _j10) {
-                    _last = true;
-                } else {
-                    _last = false;
-                }
             }
+            _spear = _spearThrows.next();
         }
 
-        /** Color of side whose moves we are iterating. */
-        private Piece _fromPiece;
+        /** Starting squares not yet considered, as the low and high
+         *  words of a mask. */
+        private long _amazonsLo, _amazonsHi;
         /** Current starting square. */
         private Square _start;
-        /** Remaining starting squares to consider. */
-        private Iterator<Square> _startingSquares;
         /** Current piece's new position. */
         private Square _nextSquare;
         /** Remaining moves from _start to consider. */
         private Iterator<Square> _pieceMoves;
         /** Remaining spear throws from _piece to consider. */
         private Iterator<Square> _spearThrows;
-        /** Current spear throw's new position. */
+        /** Current spear throw's new position, or null if there are no
+         *  more moves. */
         private Square _spear;
-        /** Is the current move the last case. */
-        private boolean _last;
-        /** Last square (j10). */
-        private Square _j10;
     }
 
     @Override
@@ -366,11 +918,11 @@ class Board {
         for (int r = Board.SIZE - 1; r >= 0; r--) {
             String line = "   ";
             for (int c = 0; c < Board.SIZE; c++) {
-                Square s = Square.sq(c, r);
+                Piece p = get(c, r);
                 if (c != Board.SIZE - 1) {
-                    line += s.piece() + " ";
+                    line += p + " ";
                 } else {
-                    line += s.piece();
+                    line += p;
                 }
             }
             ans += line + "\n";
@@ -382,13 +934,94 @@ class Board {
     private static final Iterator<Square> NO_SQUARES =
         Collections.emptyIterator();
 
+    /** The Pieces that have their own occupancy layer. */
+    private static final Piece[] LAYERS = { WHITE, BLACK, SPEAR };
+
+    /** The largest value of spearScore. */
+    private static final int MAX_SPEAR_SCORE = 4;
+
+    /** Number of squares held in the low word of each layer. */
+    private static final int LO_BITS = 64;
+
+    /** The mask of the bits used in the high word of each layer. */
+    private static final long HI_SQUARES =
+        (1L << (SIZE * SIZE - LO_BITS)) - 1;
+
+    /** THROW_BOUNDS[k] is the number of squares on the queen lines
+     *  through the square with index K: the most spear throws possible
+     *  after a move to it. */
+    private static final int[] THROW_BOUNDS = new int[SIZE * SIZE];
+
+    /** NEIGHBORS_LO[k] and NEIGHBORS_HI[k] are the low and high words
+     *  of the mask of squares adjacent (orthogonally or diagonally) to
+     *  the square with index K. */
+    private static final long[]
+        NEIGHBORS_LO = new long[SIZE * SIZE],
+        NEIGHBORS_HI = new long[SIZE * SIZE];
+
+    static {
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            for (int dir = 0; dir < 8; dir += 1) {
+                int[] ray = Square.ray(k, dir);
+                THROW_BOUNDS[k] += ray.length;
+                if (ray.length == 0) {
+                    continue;
+                }
+                if (ray[0] < LO_BITS) {
+                    NEIGHBORS_LO[k] |= 1L << ray[0];
+                } else {
+                    NEIGHBORS_HI[k] |= 1L << (ray[0] - LO_BITS);
+                }
+            }
+        }
+    }
+
+    /** Seed for the Zobrist keys, fixed so that keys are the same from
+     *  run to run. */
+    private static final long KEY_SEED = 0x616d617a6f6e73L;
+
+    /** PIECE_KEYS[p][k] is the Zobrist key for Piece ordinal P on the
+     *  square with index K. */
+    private static final long[][] PIECE_KEYS =
+        new long[Piece.values().length][SIZE * SIZE];
+
+    /** The Zobrist key for BLACK to move. */
+    private static final long BLACK_TO_MOVE_KEY;
+
+    static {
+        Random keys = new Random(KEY_SEED);
+        for (long[] pieceKeys : PIECE_KEYS) {
+            for (int k = 0; k < pieceKeys.length; k += 1) {
+                pieceKeys[k] = keys.nextLong();
+            }
+        }
+        BLACK_TO_MOVE_KEY = keys.nextLong();
+    }
+
+    /** Occupancy layers, indexed by Piece ordinal (the EMPTY entry is
+     *  unused).  Bit k of _lo[p] is set iff square k (0 <= k < 64)
+     *  holds P; bit k of _hi[p] is set iff square k + 64 holds P. */
+    private final long[] _lo = new long[Piece.values().length],
+        _hi = new long[Piece.values().length];
     /** Piece whose turn it is (BLACK or WHITE). */
     private Piece _turn;
-    /** Cached value of winner on this board, or EMPTY if it has not been
-     *  computed. */
+    /** Zobrist key of the current position (see key()). */
+    private long _key;
+    /** Cached value of winner on this board (possibly null), or EMPTY if
+     *  it has not been computed since the board last changed. */
     private Piece _winner;
-    /** Arraylist containing the list of played moves with
-     * even indexes corresponding to WHITE and odd to BLACK.
-     */
-    private ArrayList<Move> _moves;
+    /** The packed moves played (and not undone), oldest first.  Each
+     *  move fills a distinct empty square with a spear, so there can be
+     *  no more than one per square. */
+    private final int[] _moves = new int[SIZE * SIZE];
+    /** Number of valid entries in _moves. */
+    private int _numMoves;
+    /** Work space for selectedMoves, created on first use. */
+    private long[] _queenKeys;
+    /** Work space for selectedMoves, created on first use. */
+    private int[] _spears;
+    /** Work space for randomMove, created on first use: amazon moves,
+     *  as FROM << 7 | TO, and the running totals of their shares of a
+     *  draw. */
+    private int[] _queenMoves, _throwBounds;
 }
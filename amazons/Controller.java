@@ -1,6 +1,7 @@
 package amazons;
 
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.regex.Pattern;
@@ -18,19 +19,22 @@ final class Controller {
     /** Controller for one or more games of Amazons, using
      *  MANUALPLAYERTEMPLATE as an exemplar for manual players
      *  (see the Player.create method) and AUTOPLAYERTEMPLATE
-     *  as an exemplar for automated players.  Reports
+     *  and MCTSPLAYERTEMPLATE as exemplars for automated players
+     *  (the latter for "auto C mcts").  Reports
      *  board changes to VIEW at appropriate points.  Uses REPORTER
      *  to report moves, wins, and errors to user. If LOGFILE is
      *  non-null, copies all commands to it. If STRICT, exits the
      *  program with non-zero code on receiving an erroneous move from a
      *  player. */
     Controller(View view, PrintStream logFile, Reporter reporter,
-               Player manualPlayerTemplate, Player autoPlayerTemplate) {
+               Player manualPlayerTemplate, Player autoPlayerTemplate,
+               Player mctsPlayerTemplate) {
         _view = view;
         _playing = false;
         _logFile = logFile;
         _input = new Scanner(System.in);
         _autoPlayerTemplate = autoPlayerTemplate;
+        _mctsPlayerTemplate = mctsPlayerTemplate;
         _manualPlayerTemplate = manualPlayerTemplate;
         _nonPlayer = manualPlayerTemplate.create(EMPTY, this);
         _reporter = reporter;
@@ -41,17 +45,21 @@ final class Controller {
         _playing = true;
         _winner = null;
         _board.init();
+        resetClocks();
         _white = _manualPlayerTemplate.create(WHITE, this);
         _black = _autoPlayerTemplate.create(BLACK, this);
         while (_playing) {
             _view.update(_board);
             String command;
             if (_winner == null) {
-                if (_board.turn() == WHITE) {
+                Piece side = _board.turn();
+                long start = System.nanoTime();
+                if (side == WHITE) {
                     command = _white.myMove();
                 } else {
                     command = _black.myMove();
                 }
+                _timeUsed[side.ordinal()] += System.nanoTime() - start;
             } else {
                 command = _nonPlayer.myMove();
                 if (command == null) {
@@ -75,6 +83,29 @@ final class Controller {
         return _board;
     }
 
+    /** Return true iff the game has a time limit for single moves or
+     *  for whole games. */
+    boolean timed() {
+        return _moveTimeLimit != 0 || _gameTimeLimit != 0;
+    }
+
+    /** Return the time limit for a single move, in milliseconds, or 0
+     *  if there is none. */
+    long moveTimeLimit() {
+        return _moveTimeLimit;
+    }
+
+    /** Return the time SIDE has left for the rest of the game, in
+     *  milliseconds, or Long.MAX_VALUE if there is no limit.  A side's
+     *  clock runs while its player is choosing a move. */
+    long timeRemaining(Piece side) {
+        if (_gameTimeLimit == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, _gameTimeLimit
+                        - _timeUsed[side.ordinal()] / 1000000);
+    }
+
     /** Return a random integer in the range 0 inclusive to U, exclusive.
      *  Available for use by AIs that use random selections in some cases.
      *  Once setRandomSeed is called with a particular value, this method
@@ -143,11 +174,13 @@ final class Controller {
         new Command("seed\\s+(\\d+)$", this::doSeed),
         new Command("dump$", this::doDump),
         new Command("new$", this::doNew),
-        new Command("auto [a-zA-z]+$", this::doAuto),
+        new Command("auto ([a-zA-z]+)(?:\\s+(ai|mcts))?$", this::doAuto),
         new Command("manual [a-zA-z]+$", this::doManual),
         new Command("dump$", this::doDump),
         new Command(Move.MOVE_PATTERN.toString(), this::doMove),
-        new Command("undo$", this::doUndo)
+        new Command("undo$", this::doUndo),
+        new Command("time\\s+(\\d+(?:\\.\\d*)?)"
+                    + "\\s+(\\d+(?:\\.\\d*)?)$", this::doTime)
     };
 
     /** A Matcher whose Pattern matches comments. */
@@ -181,6 +214,20 @@ final class Controller {
     private void doNew(Matcher unused) {
         _board.init();
         _winner = null;
+        resetClocks();
+    }
+
+    /** Command "time M G", where M and G (groups 1 and 2 of MAT) are
+     *  the time limits in seconds for a single move and for all of one
+     *  side's moves in a game.  A limit of 0 means no limit. */
+    private void doTime(Matcher mat) {
+        _moveTimeLimit = (long) (Double.parseDouble(mat.group(1)) * 1000);
+        _gameTimeLimit = (long) (Double.parseDouble(mat.group(2)) * 1000);
+    }
+
+    /** Set both sides' clocks to zero time used. */
+    private void resetClocks() {
+        Arrays.fill(_timeUsed, 0);
     }
 
     /** Command "quit". */
@@ -202,15 +249,18 @@ final class Controller {
         System.out.printf("===%n%s===%n", _board);
     }
 
-    /** Set player to automatic.
+    /** Set player to automatic, played by the alpha-beta AI, or by
+     *  Monte Carlo tree search if the command ends with "mcts".
      * @param C
      */
     private void doAuto(Matcher C) {
-        String c = C.group().substring(5);
+        String c = C.group(1);
+        Player template = "mcts".equals(C.group(2))
+            ? _mctsPlayerTemplate : _autoPlayerTemplate;
         if (c.toUpperCase().equals("WHITE")) {
-            _white = _autoPlayerTemplate.create(WHITE, _white._controller);
+            _white = template.create(WHITE, _white._controller);
         } else if (c.toUpperCase().equals("BLACK")) {
-            _black = _autoPlayerTemplate.create(BLACK, _black._controller);
+            _black = template.create(BLACK, _black._controller);
         }
     }
 
@@ -247,6 +297,14 @@ final class Controller {
     /** The board. */
     private Board _board = new Board();
 
+    /** Time limits for one move and for one side's whole game, in
+     *  milliseconds, or 0 for no limit. */
+    private long _moveTimeLimit, _gameTimeLimit;
+
+    /** Time used so far in this game by each side, in nanoseconds,
+     *  indexed by Piece ordinal. */
+    private final long[] _timeUsed = new long[Piece.values().length];
+
     /** The winning side of the current game. */
     private Piece _winner;
 
@@ -275,6 +333,8 @@ final class Controller {
 
     /** The current templates for manual and automated players. */
     private Player _autoPlayerTemplate, _manualPlayerTemplate;
+    /** The template for automated players using tree search. */
+    private Player _mctsPlayerTemplate;
 
     /** Reporter for messages and errors. */
     private Reporter _reporter;
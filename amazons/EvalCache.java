@@ -0,0 +1,102 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** A fixed-size, direct-mapped cache of static evaluations, keyed by
+ *  the Zobrist key of the evaluated position (see Board.key).  Each key
+ *  maps to exactly one slot, and storing into an occupied slot simply
+ *  replaces its previous entry, so the cache always holds the most
+ *  recently evaluated position for each slot.
+ *
+ *  Each slot is two longs: the entry's data, and its key XORed with the
+ *  data.  A reader accepts an entry only if the two agree with the key
+ *  it is looking for, so the cache can be shared by several searching
+ *  threads without locking: an entry torn by a concurrent write reads
+ *  as a miss.
+ *  @author Nicholas Moy.
+ */
+final class EvalCache {
+
+    /** Value returned by get for a key that is not in the cache. */
+    static final long MISS = Long.MIN_VALUE;
+
+    /** Number of bytes of memory used per entry. */
+    static final int ENTRY_BYTES = 2 * Long.BYTES;
+
+    /** A cache using at most BYTES bytes for its entries.  The number of
+     *  entries is the largest power of two that fits; a budget smaller
+     *  than one entry gives a cache that never hits. */
+    EvalCache(long bytes) {
+        long entries = Long.highestOneBit(Math.max(bytes / ENTRY_BYTES, 0));
+        entries = Math.min(entries, MAX_ENTRIES);
+        _checks = new long[(int) entries];
+        _data = new long[(int) entries];
+        _mask = (int) entries - 1;
+    }
+
+    /** Return the number of entries I can hold. */
+    int capacity() {
+        return _data.length;
+    }
+
+    /** Return the score stored for KEY, or MISS if there is none. */
+    long get(long key) {
+        if (_data.length > 0) {
+            int slot = (int) key & _mask;
+            long data = _data[slot];
+            if ((_checks[slot] ^ data) == key && data != 0) {
+                _hits += 1;
+                return (int) data;
+            }
+        }
+        _misses += 1;
+        return MISS;
+    }
+
+    /** Record SCORE as the static evaluation of the position with key
+     *  KEY, replacing whatever occupied its slot. */
+    void put(long key, int score) {
+        if (_data.length > 0) {
+            int slot = (int) key & _mask;
+            long data = VALID | (score & SCORE_MASK);
+            _data[slot] = data;
+            _checks[slot] = key ^ data;
+        }
+    }
+
+    /** Remove all entries and reset the hit and miss counts. */
+    void clear() {
+        Arrays.fill(_data, 0);
+        Arrays.fill(_checks, 0);
+        _hits = _misses = 0;
+    }
+
+    /** Return the number of calls to get that found an entry.  When
+     *  several threads share the cache, the count is approximate. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of calls to get that found no entry.  When
+     *  several threads share the cache, the count is approximate. */
+    long misses() {
+        return _misses;
+    }
+
+    /** The largest number of entries supported. */
+    private static final long MAX_ENTRIES = 1L << 30;
+    /** Bit set in every stored data word, distinguishing entries from
+     *  empty slots. */
+    private static final long VALID = 1L << 32;
+    /** The bits of a data word holding the score. */
+    private static final long SCORE_MASK = 0xffffffffL;
+
+    /** Each stored key XORed with its data word, by slot. */
+    private final long[] _checks;
+    /** Data words (VALID plus score), by slot; 0 if the slot is empty. */
+    private final long[] _data;
+    /** Mask giving the slot for a key. */
+    private final int _mask;
+    /** Number of hits and misses since creation or the last clear. */
+    private long _hits, _misses;
+}
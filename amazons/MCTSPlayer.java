@@ -0,0 +1,403 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+import static java.lang.Math.*;
+import static amazons.Piece.*;
+
+/** A Player that chooses moves by Monte Carlo tree search.  Each
+ *  iteration descends the tree from the current position, choosing
+ *  children by UCT (the upper confidence bound applied to trees), adds
+ *  one node, finishes the game from there with random moves (a
+ *  playout), and credits the result to the nodes on the way.  The
+ *  move played is the most visited child of the root.
+ *
+ *  Amazons positions have hundreds or thousands of moves, so a node
+ *  gets children gradually (progressive widening): a node visited N
+ *  times may have about WIDENING * sqrt(N) of them, added best first
+ *  in the order of Board.selectedMoves, taking each amazon move's best
+ *  spear throw before any second-best one.  Playouts may be cut off
+ *  after a fixed number of moves (see SearchConfig.playoutPlies), the
+ *  result then going to the side that Territory favors.
+ *
+ *  The tree lives in parallel arrays of primitives indexed by node
+ *  number (a node pool), so that a tree of millions of nodes costs the
+ *  garbage collector nothing.  Children are created after their
+ *  parents, and so have larger numbers.  The tree is kept between
+ *  moves: the next search starts from the node for the new position if
+ *  the tree has one, after the pool is compacted to hold only its
+ *  subtree.
+ *  @author Nicholas Moy.
+ */
+class MCTSPlayer extends Player {
+
+    /** Weight of the exploration term in UCT. */
+    private static final double EXPLORATION = 0.7;
+    /** Coefficient of sqrt(visits) in the number of children a node
+     *  may have. */
+    private static final double WIDENING = 2.0;
+    /** Number of move orderings cached by nthMove (a power of 2). */
+    private static final int ORDER_SLOTS = 256;
+    /** Marks a missing node, and a node whose moves are not yet
+     *  counted. */
+    private static final int NONE = -1;
+
+    /** A new MCTSPlayer with no piece or controller (intended to
+     *  produce a template), configured by CONFIG. */
+    MCTSPlayer(SearchConfig config) {
+        super(null, null);
+        _config = config;
+        _random = null;
+    }
+
+    /** A new MCTSPlayer playing PIECE under control of CONTROLLER,
+     *  configured by CONFIG. */
+    private MCTSPlayer(Piece piece, Controller controller,
+                       SearchConfig config) {
+        super(piece, controller);
+        _config = config;
+        _random = controller::randInt;
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MCTSPlayer(piece, controller, _config);
+    }
+
+    @Override
+    String myMove() {
+        Move move = Move.mv(findMove());
+        _controller.reportMove(move);
+        return move.toString();
+    }
+
+    /** Return the number of nodes in use in my pool, including any
+     *  left from earlier searches that are no longer in my tree. */
+    int nodesUsed() {
+        return _size;
+    }
+
+    /** Return the number of playouts made by my last search. */
+    int playouts() {
+        return _playouts;
+    }
+
+    /** Return a packed move for me from the current position, assuming
+     *  there is one, searching for the time given by
+     *  SearchConfig.moveTargetMillis. */
+    private int findMove() {
+        Board position = board();
+        long deadline = System.nanoTime()
+            + _config.moveTargetMillis(_controller, _myPiece, position)
+            * 1000000L;
+        if (_move == null) {
+            _move = new int[_config.treeNodes()];
+            _parent = new int[_move.length];
+            _child = new int[_move.length];
+            _sibling = new int[_move.length];
+            _visits = new int[_move.length];
+            _wins = new float[_move.length];
+            _children = new int[_move.length];
+            _moves = new int[_move.length];
+            _forward = new int[_move.length];
+        }
+        reroot(position);
+        _playouts = 0;
+        Board board = new Board();
+        do {
+            board.copy(position);
+            iterate(board);
+            _playouts += 1;
+        } while (System.nanoTime() < deadline);
+        int best = NONE;
+        for (int c = _child[_root]; c != NONE; c = _sibling[c]) {
+            if (best == NONE || _visits[c] > _visits[best]) {
+                best = c;
+            }
+        }
+        if (best == NONE) {
+            return nthMove(position, _root, 0);
+        }
+        return _move[best];
+    }
+
+    /** Make _root the node for the position on BOARD: a child or
+     *  grandchild of the current root if there is one, and otherwise a
+     *  new tree.  Compacts the pool if it is more than half full. */
+    private void reroot(Board board) {
+        clearOrders();
+        int root = NONE;
+        if (_rootBoard != null && _size > 0) {
+            root = find(_rootBoard, _root, board.key(), 2);
+        }
+        if (root == NONE) {
+            _size = 0;
+            _root = newNode(NONE, NONE);
+        } else {
+            _root = root;
+            _parent[root] = _sibling[root] = NONE;
+            if (_size > _move.length / 2) {
+                compact();
+            }
+        }
+        _rootBoard = new Board(board);
+    }
+
+    /** Return the node at most DEPTH moves below NODE, whose position
+     *  is on BOARD, for the position with key KEY, or NONE if there is
+     *  none.  BOARD is restored before returning. */
+    private int find(Board board, int node, long key, int depth) {
+        if (board.key() == key) {
+            return node;
+        }
+        if (depth == 0) {
+            return NONE;
+        }
+        for (int c = _child[node]; c != NONE; c = _sibling[c]) {
+            board.makeMove(_move[c]);
+            int result = find(board, c, key, depth - 1);
+            board.undo();
+            if (result != NONE) {
+                return result;
+            }
+        }
+        return NONE;
+    }
+
+    /** Move the subtree at _root to the start of the pool, discarding
+     *  all other nodes.  Every node is created after its parent, so a
+     *  single pass in order of node number finds the subtree, and
+     *  moving its nodes down in that order overwrites only nodes
+     *  already moved or discarded. */
+    private void compact() {
+        int size = 0;
+        for (int n = _root; n < _size; n += 1) {
+            if (n == _root
+                || (_parent[n] >= _root && _forward[_parent[n]] != NONE)) {
+                _forward[n] = size;
+                size += 1;
+            } else {
+                _forward[n] = NONE;
+            }
+        }
+        for (int n = _root; n < _size; n += 1) {
+            int k = _forward[n];
+            if (k == NONE) {
+                continue;
+            }
+            _move[k] = _move[n];
+            _parent[k] = n == _root ? NONE : _forward[_parent[n]];
+            _child[k] = _child[n] == NONE ? NONE : _forward[_child[n]];
+            _sibling[k] = _sibling[n] == NONE ? NONE
+                : _forward[_sibling[n]];
+            _visits[k] = _visits[n];
+            _wins[k] = _wins[n];
+            _children[k] = _children[n];
+            _moves[k] = _moves[n];
+        }
+        _root = 0;
+        _size = size;
+    }
+
+    /** Return a new node for packed MOVE, a child of PARENT (or the root
+     *  if PARENT is NONE), or NONE if the pool is full. */
+    private int newNode(int parent, int move) {
+        if (_size == _move.length) {
+            return NONE;
+        }
+        int node = _size;
+        _size += 1;
+        _move[node] = move;
+        _parent[node] = parent;
+        _child[node] = _sibling[node] = NONE;
+        _visits[node] = 0;
+        _wins[node] = 0;
+        _children[node] = 0;
+        _moves[node] = NONE;
+        if (parent != NONE) {
+            _sibling[node] = _child[parent];
+            _child[parent] = node;
+            _children[parent] += 1;
+        }
+        return node;
+    }
+
+    /** Perform one iteration of the search from _root, whose position
+     *  is on BOARD: select a path, expand it by one node, play out the
+     *  game, and record the result.  Modifies BOARD. */
+    private void iterate(Board board) {
+        int node = _root;
+        while (true) {
+            if (_moves[node] == NONE) {
+                _moves[node] = board.mobility(board.turn());
+            }
+            if (_moves[node] == 0) {
+                break;
+            }
+            int width = (int) min(_moves[node],
+                                  1 + WIDENING * sqrt(_visits[node]));
+            if (_children[node] < width) {
+                int child =
+                    newNode(node, nthMove(board, node, _children[node]));
+                if (child != NONE) {
+                    board.makeMove(_move[child]);
+                    node = child;
+                    break;
+                }
+            }
+            if (_child[node] == NONE) {
+                break;
+            }
+            node = select(node);
+            board.makeMove(_move[node]);
+        }
+        Piece mover = board.turn().opponent();
+        float score = playout(board) == mover ? 1 : 0;
+        for (; node != NONE; node = _parent[node]) {
+            _visits[node] += 1;
+            _wins[node] += score;
+            score = 1 - score;
+        }
+    }
+
+    /** Return the child of NODE with the greatest UCT value: its
+     *  fraction of wins for the side that moves into it, plus a bonus
+     *  that shrinks as it is visited more often than its siblings. */
+    private int select(int node) {
+        double logVisits = log(max(_visits[node], 1));
+        int best = NONE;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int c = _child[node]; c != NONE; c = _sibling[c]) {
+            double value = _visits[c] == 0 ? Double.POSITIVE_INFINITY
+                : _wins[c] / _visits[c]
+                + EXPLORATION * sqrt(logVisits / _visits[c]);
+            if (value > bestValue) {
+                bestValue = value;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /** Play random moves, chosen uniformly by Board.randomMove with my
+     *  Controller's random numbers, on BOARD until the game ends or
+     *  SearchConfig.playoutPlies moves have been made, and return the
+     *  winner, or the side favored by Territory if the playout was cut
+     *  off (WHITE if neither is). */
+    private Piece playout(Board board) {
+        int limit = _config.playoutPlies();
+        for (int ply = 0; limit == 0 || ply < limit; ply += 1) {
+            int move = board.randomMove(board.turn(), _random);
+            if (move == -1) {
+                return board.turn().opponent();
+            }
+            board.makeMove(move);
+        }
+        Piece winner = board.winner();
+        if (winner != null) {
+            return winner;
+        }
+        return _territory.evaluate(board) >= 0 ? WHITE : BLACK;
+    }
+
+    /** Return the packed move with index K, counting from 0, in the
+     *  order in which children are added to NODE, whose position is on
+     *  BOARD (see the class comment).  Assumes there are more than K
+     *  legal moves.  The orderings of recently widened nodes are kept
+     *  in a small cache indexed by node number, so that a node whose
+     *  slot has not been taken since orders its moves only once. */
+    private int nthMove(Board board, int node, int k) {
+        if (_orders == null) {
+            _orders = new int[ORDER_SLOTS][];
+            _orderNodes = new int[ORDER_SLOTS];
+            Arrays.fill(_orderNodes, NONE);
+        }
+        int slot = node & (ORDER_SLOTS - 1);
+        if (_orderNodes[slot] != node) {
+            if (_orders[slot] == null) {
+                _orders[slot] = new int[Board.MAX_MOVES];
+            }
+            order(board, _orders[slot]);
+            _orderNodes[slot] = node;
+        }
+        return _orders[slot][k];
+    }
+
+    /** Store in ORDER the legal moves on BOARD, packed, in the order in
+     *  which children are added for its position: each amazon move's
+     *  best spear throw, best amazon move first, then each one's second
+     *  best, and so on. */
+    private void order(Board board, int[] order) {
+        if (_moveBuffer == null) {
+            _moveBuffer = new int[Board.MAX_MOVES];
+            _groups = new int[Board.MAX_AMAZON_MOVES + 1];
+        }
+        int[] moves = _moveBuffer;
+        int n = board.selectedMoves(board.turn(), moves, 0, 0);
+        int groups = 0;
+        for (int i = 0; i < n; i += 1) {
+            if (i == 0 || moves[i] >>> 7 != moves[i - 1] >>> 7) {
+                _groups[groups] = i;
+                groups += 1;
+            }
+        }
+        _groups[groups] = n;
+        int k = 0;
+        for (int rank = 0; k < n; rank += 1) {
+            for (int g = 0; g < groups; g += 1) {
+                if (_groups[g] + rank < _groups[g + 1]) {
+                    order[k] = moves[_groups[g] + rank];
+                    k += 1;
+                }
+            }
+        }
+    }
+
+    /** Forget all cached move orderings, as when node numbers
+     *  change. */
+    private void clearOrders() {
+        if (_orderNodes != null) {
+            Arrays.fill(_orderNodes, NONE);
+        }
+    }
+
+    /** My settings. */
+    private final SearchConfig _config;
+    /** My static evaluator for cut-off playouts. */
+    private final Territory _territory = new Territory();
+    /** Work space for order: moves, and the start of each amazon move's
+     *  spear throws among them. */
+    private int[] _moveBuffer, _groups;
+    /** Cached move orderings (see nthMove), and the node each slot
+     *  holds, or NONE; created on first use. */
+    private int[][] _orders;
+    /** See _orders. */
+    private int[] _orderNodes;
+    /** My Controller's source of random numbers, or null if I am a
+     *  template. */
+    private final IntUnaryOperator _random;
+
+    /** The node pool, indexed by node number, created on first use.
+     *  _move: the packed move leading to the node (NONE at the root).
+     *  _parent, _child, _sibling: the node's parent, most recently
+     *  added child, and next older sibling, or NONE.  _visits: number
+     *  of playouts through the node.  _wins: number of those won by the
+     *  side that moved into the node.  _children: number of children.
+     *  _moves: number of legal moves in the node's position, or NONE if
+     *  not yet counted. */
+    private int[] _move, _parent, _child, _sibling, _visits, _children,
+        _moves;
+    /** See _move. */
+    private float[] _wins;
+    /** Work space for compact: new node numbers, or NONE. */
+    private int[] _forward;
+    /** Number of nodes in use, including discarded ones. */
+    private int _size;
+    /** The root of my tree. */
+    private int _root;
+    /** The position at my root, or null if I have no tree. */
+    private Board _rootBoard;
+    /** Number of playouts made by my last search. */
+    private int _playouts;
+}
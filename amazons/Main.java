@@ -19,10 +19,26 @@ public class Main {
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --log={0,1} --={0,2}", args);
+            new CommandArgs("--display --log={0,1} --evalcache={0,1}"
+                            + " --hash={0,1} --threads={0,1} --ybwc"
+                            + " --select={0,1} --nopvs --noaspiration"
+                            + " --lmr={0,1} --prune={0,1} --eval={0,1}"
+                            + " --noregions --tablebase={0,1}"
+                            + " --book={0,1} --playout={0,1}"
+                            + " --nodes={0,1} --={0,2}",
+                            args);
         if (!options.ok()) {
             System.err.println("Usage: java amazons.Main [--display]"
-                               + " [--log=FILE] [INPUT [OUTPUT]]");
+                               + " [--log=FILE] [--evalcache=MB]"
+                               + " [--hash=GB] [--threads=N] [--ybwc]"
+                               + " [--select=Q:A,...] [--nopvs]"
+                               + " [--noaspiration] [--lmr=N:R]"
+                               + " [--prune=M,...]"
+                               + " [--eval=territory|mobility]"
+                               + " [--noregions] [--tablebase=FILE]"
+                               + " [--book=FILE] [--playout=N]"
+                               + " [--nodes=N]"
+                               + " [INPUT [OUTPUT]]");
             System.exit(1);
         }
 
@@ -83,6 +99,126 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer, new AI());
+        SearchConfig config = getSearchConfig(options);
+        return new Controller(view, log, reporter, manualPlayer,
+                              new AI(config), new MCTSPlayer(config));
+    }
+
+    /** Return the AI settings indicated by OPTIONS. */
+    private static SearchConfig getSearchConfig(CommandArgs options) {
+        SearchConfig config = new SearchConfig();
+        if (options.contains("--evalcache")) {
+            config.setEvalCacheBytes(
+                getNumber(options, "--evalcache") << 20);
+        }
+        if (options.contains("--threads")) {
+            config.setThreads((int) getNumber(options, "--threads"));
+        }
+        config.setYoungBrothersWait(options.contains("--ybwc"));
+        config.setPrincipalVariationSearch(!options.contains("--nopvs"));
+        config.setAspirationWindows(!options.contains("--noaspiration"));
+        config.setRegionSolving(!options.contains("--noregions"));
+        if (options.contains("--tablebase")) {
+            config.setTablebaseFile(options.getFirst("--tablebase"));
+        }
+        if (options.contains("--book")) {
+            config.setBookFile(options.getFirst("--book"));
+        }
+        if (options.contains("--playout")) {
+            config.setPlayoutPlies((int) getNumber(options, "--playout"));
+        }
+        if (options.contains("--nodes")) {
+            config.setTreeNodes((int) getNumber(options, "--nodes"));
+        }
+        if (options.contains("--select")) {
+            setWidths(config, options.getFirst("--select"));
+        }
+        if (options.contains("--eval")) {
+            String eval = options.getFirst("--eval");
+            if (!eval.equals("territory") && !eval.equals("mobility")) {
+                throw error("bad value for --eval");
+            }
+            config.setTerritoryEvaluation(eval.equals("territory"));
+        }
+        if (options.contains("--lmr")) {
+            int[] lmr = getNumbers(options, "--lmr", ":");
+            if (lmr.length != 2) {
+                throw error("bad value for --lmr");
+            }
+            config.setLateMoveReductions(lmr[0], lmr[1]);
+        }
+        if (options.contains("--prune")) {
+            config.setMoveCountLimits(getNumbers(options, "--prune", ","));
+        }
+        if (options.contains("--hash")) {
+            try {
+                double gigabytes =
+                    Double.parseDouble(options.getFirst("--hash"));
+                config.setTableBytes((long) (gigabytes * (1L << 30)));
+            } catch (NumberFormatException excp) {
+                throw error("bad value for --hash");
+            }
+        }
+        return config;
+    }
+
+    /** Set the selective search widths of CONFIG from SPEC, a
+     *  comma-separated list of Q:A pairs, one per ply, where Q is the
+     *  number of amazon moves and A the number of spear throws after
+     *  each to search at that ply (0 for all).  The last pair applies
+     *  to all deeper plies. */
+    private static void setWidths(SearchConfig config, String spec) {
+        String[] plies = spec.split(",");
+        int[] queens = new int[plies.length],
+            arrows = new int[plies.length];
+        try {
+            for (int k = 0; k < plies.length; k += 1) {
+                String[] pair = plies[k].split(":");
+                if (pair.length != 2) {
+                    throw error("bad value for --select");
+                }
+                queens[k] = Integer.parseInt(pair[0]);
+                arrows[k] = Integer.parseInt(pair[1]);
+                if (queens[k] < 0 || arrows[k] < 0) {
+                    throw error("bad value for --select");
+                }
+            }
+        } catch (NumberFormatException excp) {
+            throw error("bad value for --select");
+        }
+        config.setWidths(queens, arrows);
+    }
+
+    /** Return the non-negative integers separated by SEPARATOR in the
+     *  value of option NAME in OPTIONS. */
+    private static int[] getNumbers(CommandArgs options, String name,
+                                    String separator) {
+        String[] fields = options.getFirst(name).split(separator);
+        int[] result = new int[fields.length];
+        try {
+            for (int k = 0; k < fields.length; k += 1) {
+                result[k] = Integer.parseInt(fields[k]);
+                if (result[k] < 0) {
+                    throw error("bad value for %s", name);
+                }
+            }
+        } catch (NumberFormatException excp) {
+            throw error("bad value for %s", name);
+        }
+        return result;
+    }
+
+    /** Return the non-negative integer value of option NAME in
+     *  OPTIONS. */
+    private static long getNumber(CommandArgs options, String name) {
+        try {
+            long value = Long.parseLong(options.getFirst(name));
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad value for %s", name);
     }
 }
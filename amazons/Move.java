@@ -1,5 +1,7 @@
 package amazons;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -10,6 +12,11 @@ import static amazons.Square.SQ;
  *  and unique: there is only one move object for each possible move
  *  (generated by the factory method  mv, the constructor being private).
  *  As for Squares, you can freely use == to compare Moves.
+ *
+ *  Most of the program handles moves in packed form: a plain int
+ *  holding the three square indices (see pack).  Move objects are
+ *  created lazily, on first request, and all methods of this class
+ *  may be called from any number of threads.
  *  @author P. N. Hilfinger
  */
 final class Move {
@@ -37,58 +44,161 @@ final class Move {
         return _spear;
     }
 
-    /** Return the unique Move FROM-TO(SPEAR). */
+    /** Return the unique Move FROM-TO(SPEAR), or null if FROM-TO and
+     *  TO-SPEAR are not both queen moves. */
     static Move mv(Square from, Square to, Square spear) {
-        if (MOVES[from.index()][to.index()][spear.index()] == null) {
-            MOVES[from.index()][to.index()][spear.index()] =
-                new Move(from, to, spear);
+        if (!from.isQueenMove(to) || !to.isQueenMove(spear)) {
+            return null;
         }
-        return MOVES[from.index()][to.index()][spear.index()];
+        int k = FIRST[from.index()][to.index()]
+            + RANK[to.index()][spear.index()];
+        Move result = MOVES.get(k);
+        if (result == null) {
+            MOVES.compareAndSet(k, null, new Move(from, to, spear));
+            result = MOVES.get(k);
+        }
+        return result;
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax in which the piece move and spear throw are proper
      *  queen moves, and null otherwise. */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            int k = _moveMatcher.group(1) != null ? 1 : 4;
-            Square from = sq(_moveMatcher.group(k)),
-                to = sq(_moveMatcher.group(k + 1)),
-                spear = sq(_moveMatcher.group(k + 2));
-            if (from.isQueenMove(to) && to.isQueenMove(spear)) {
-                return mv(from, to, spear);
-            }
+        Matcher mat = MOVE_PATTERN.matcher(str);
+        if (mat.matches()) {
+            int k = mat.group(1) != null ? 1 : 4;
+            return mv(sq(mat.group(k)), sq(mat.group(k + 1)),
+                      sq(mat.group(k + 2)));
         }
         return null;
     }
 
+    /** Return true iff MOVE has the form of a packed move (see pack):
+     *  three valid square indices, though they need not make a legal
+     *  move. */
+    static boolean isPacked(int move) {
+        return move >= 0 && fromIndex(move) < NUM_SQUARES
+            && toIndex(move) < NUM_SQUARES
+            && spearIndex(move) < NUM_SQUARES;
+    }
+
+    /** Return the Move whose packed form (see pack) is MOVE. */
+    static Move mv(int move) {
+        return mv(sq(fromIndex(move)), sq(toIndex(move)),
+                  sq(spearIndex(move)));
+    }
+
+    /** Return the packed form of the move from the square with index
+     *  FROM to the square with index TO, throwing a spear to the square
+     *  with index SPEAR.  Packed moves are plain ints, so they can be
+     *  stored in arrays without allocating anything. */
+    static int pack(int from, int to, int spear) {
+        return (from << (2 * INDEX_BITS)) | (to << INDEX_BITS) | spear;
+    }
+
+    /** Return the index of the square moved from in packed MOVE. */
+    static int fromIndex(int move) {
+        return move >>> (2 * INDEX_BITS);
+    }
+
+    /** Return the index of the square moved to in packed MOVE. */
+    static int toIndex(int move) {
+        return (move >>> INDEX_BITS) & INDEX_MASK;
+    }
+
+    /** Return the index of the spear's square in packed MOVE. */
+    static int spearIndex(int move) {
+        return move & INDEX_MASK;
+    }
+
+    /** Return packed MOVE with each of its squares carried by symmetry
+     *  SYM (see Square.symmetric). */
+    static int symmetric(int sym, int move) {
+        return pack(Square.symmetric(sym, fromIndex(move)),
+                    Square.symmetric(sym, toIndex(move)),
+                    Square.symmetric(sym, spearIndex(move)));
+    }
+
+    /** Return the standard text form FROM-TO(SPEAR) of packed MOVE. */
+    static String toString(int move) {
+        return sq(fromIndex(move)) + "-" + sq(toIndex(move))
+            + "(" + sq(spearIndex(move)) + ")";
+    }
+
+    /** Return my packed form. */
+    int pack() {
+        return pack(_from.index(), _to.index(), _spear.index());
+    }
+
     /** Return true iff STR has the right format for a Move, ignoring whether
      *  its piece-move and spear-throw are valid queen moves. */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return MOVE_PATTERN.matcher(str).matches();
     }
 
     @Override
     public String toString() {
-        return _str;
+        String str = _str;
+        if (str == null) {
+            str = _str = toString(pack());
+        }
+        return str;
     }
 
     /** Construct the Move FROM-TO(SPEAR). */
     private Move(Square from, Square to, Square spear) {
         _from = from; _to = to; _spear = spear;
-        _str = String.format("%s-%s(%s)", from, to, spear);
     }
 
-    /** The cache of all Moves created. */
-    private static final Move[][][] MOVES = new Move[100][100][100];
+    /** Number of bits used for each square index in a packed move. */
+    private static final int INDEX_BITS = 7;
+    /** Mask extracting one square index from a packed move. */
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+
+    /** Number of squares. */
+    private static final int NUM_SQUARES = Board.SIZE * Board.SIZE;
+
+    /** RANK[t][s] is the position of square s among the queen moves
+     *  from square t (in Square.ray order), or -1 if t-s is not a queen
+     *  move. */
+    private static final int[][] RANK = new int[NUM_SQUARES][NUM_SQUARES];
+
+    /** FIRST[f][t] is the position in MOVES of the first Move f-t(s),
+     *  or -1 if f-t is not a queen move.  The Moves f-t(s) occupy
+     *  consecutive positions, ordered by RANK[t][s]. */
+    private static final int[][] FIRST = new int[NUM_SQUARES][NUM_SQUARES];
+
+    /** The cache of all Moves created, holding one slot for every
+     *  geometrically possible move. */
+    private static final AtomicReferenceArray<Move> MOVES;
+
+    static {
+        int[] reach = new int[NUM_SQUARES];
+        for (int t = 0; t < NUM_SQUARES; t += 1) {
+            Arrays.fill(RANK[t], -1);
+            for (int dir = 0; dir < 8; dir += 1) {
+                for (int s : Square.ray(t, dir)) {
+                    RANK[t][s] = reach[t];
+                    reach[t] += 1;
+                }
+            }
+        }
+        int size = 0;
+        for (int f = 0; f < NUM_SQUARES; f += 1) {
+            Arrays.fill(FIRST[f], -1);
+            for (int dir = 0; dir < 8; dir += 1) {
+                for (int t : Square.ray(f, dir)) {
+                    FIRST[f][t] = size;
+                    size += reach[t];
+                }
+            }
+        }
+        MOVES = new AtomicReferenceArray<>(size);
+    }
 
     /** The components of a Move. */
     private final Square _from, _to, _spear;
-    /** The printed form of a Move. */
+    /** The printed form of a Move, or null if not yet computed. */
     private String _str;
-    /**  A utility Matcher for moves, using MOVE_PATTERN. */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
 }
 
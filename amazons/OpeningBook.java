@@ -0,0 +1,252 @@
+package amazons;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static amazons.Utils.error;
+
+/** A book of opening moves: for positions reached early in past games,
+ *  the moves played from them, how often each was played (its visits),
+ *  and how often the side playing it went on to win (its weight).
+ *
+ *  A book is a file of fixed-width records (key, move, weight, visits),
+ *  built offline by main from game logs such as those written by
+ *  --log.  Positions equivalent by symmetry share their records: the
+ *  key is the position's canonical key (see Board.canonicalKey), the
+ *  move is as played in the canonical position (see
+ *  Board.canonicalSymmetry), and records are sorted by key.  The file is
+ *  mapped into memory when opened and binary-searched in place, so
+ *  opening a book reads nothing and a lookup costs a few dozen reads.
+ *  Any number of threads may look up moves in an OpeningBook at once.
+ *  @author Nicholas Moy.
+ */
+public final class OpeningBook {
+
+    /** Default number of moves from the start of each game recorded by
+     *  main. */
+    static final int DEFAULT_PLIES = 12;
+
+    /** Build a book from the first ARGS[1] moves (default
+     *  DEFAULT_PLIES) of the games in the log files named by ARGS[2]
+     *  and after into the file named ARGS[0], reporting the number of
+     *  records.  ARGS[1] may be omitted if the first log file's name
+     *  does not start with a digit. */
+    public static void main(String... args) {
+        int plies = DEFAULT_PLIES, first = 1;
+        if (args.length > 1 && Character.isDigit(args[1].charAt(0))) {
+            try {
+                plies = Integer.parseInt(args[1]);
+            } catch (NumberFormatException excp) {
+                plies = -1;
+            }
+            first = 2;
+        }
+        if (args.length <= first || plies < 0) {
+            System.err.println("Usage: java amazons.OpeningBook FILE"
+                               + " [PLIES] LOG...");
+            System.exit(1);
+        }
+        List<String> logs = new ArrayList<>();
+        for (int i = first; i < args.length; i += 1) {
+            logs.add(args[i]);
+        }
+        System.out.printf("%d records%n", build(args[0], logs, plies));
+    }
+
+    /** The book in the file named FILENAME, as written by build. */
+    OpeningBook(String fileName) {
+        try (FileChannel channel =
+             FileChannel.open(Paths.get(fileName),
+                              StandardOpenOption.READ)) {
+            _records = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                   channel.size());
+        } catch (IOException excp) {
+            throw error("could not read opening book %s", fileName);
+        }
+        if (_records.capacity() < HEADER_BYTES
+            || _records.getLong(0) != MAGIC) {
+            throw error("%s is not an opening book", fileName);
+        }
+        _size = _records.getInt(Long.BYTES);
+        if (_records.capacity()
+            != HEADER_BYTES + (long) _size * RECORD_BYTES) {
+            throw error("opening book %s is truncated", fileName);
+        }
+    }
+
+    /** Return my number of records. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the index of my first record for the position with
+     *  canonical key KEY, or -1 if there is none.  The records for a
+     *  position are consecutive, in decreasing order of weight and then
+     *  of visits. */
+    int find(long key) {
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo < _size && key(lo) == key ? lo : -1;
+    }
+
+    /** Return the canonical position key of record I. */
+    long key(int i) {
+        return _records.getLong(HEADER_BYTES + i * RECORD_BYTES);
+    }
+
+    /** Return the packed move of record I, as played in the canonical
+     *  position. */
+    int move(int i) {
+        return _records.getInt(HEADER_BYTES + i * RECORD_BYTES + MOVE);
+    }
+
+    /** Return the weight of record I. */
+    int weight(int i) {
+        return _records.getInt(HEADER_BYTES + i * RECORD_BYTES + WEIGHT);
+    }
+
+    /** Return the number of visits of record I. */
+    int visits(int i) {
+        return _records.getInt(HEADER_BYTES + i * RECORD_BYTES + VISITS);
+    }
+
+    /** Write to the file named FILENAME a book of the first PLIES moves
+     *  of each game in the log files named by LOGS, and return the
+     *  number of records.  A game is the sequence of moves between one
+     *  "new" command (or the start of a log) and the next, less any
+     *  taken back by "undo".  Comments are removed as by Controller;
+     *  other commands and illegal moves are skipped. */
+    static int build(String fileName, List<String> logs, int plies) {
+        Map<Long, Map<Integer, int[]>> book = new HashMap<>();
+        for (String log : logs) {
+            try (BufferedReader input =
+                 new BufferedReader(new FileReader(log))) {
+                Board board = new Board();
+                List<Integer> game = new ArrayList<>();
+                for (String line = input.readLine(); ;
+                     line = input.readLine()) {
+                    String cmnd = line == null ? "new"
+                        : COMMENT.matcher(line).replaceFirst("").trim()
+                        .toLowerCase();
+                    if (cmnd.equals("new")) {
+                        record(book, game, board.winner(), plies);
+                        board.init();
+                        game.clear();
+                    } else if (cmnd.equals("undo")) {
+                        if (!game.isEmpty()) {
+                            board.undo();
+                            game.remove(game.size() - 1);
+                        }
+                    } else if (Move.isGrammaticalMove(cmnd)) {
+                        Move move = Move.mv(cmnd);
+                        if (move != null && board.winner() == null
+                            && board.isLegal(move)) {
+                            board.makeMove(move);
+                            game.add(move.pack());
+                        }
+                    }
+                    if (line == null) {
+                        break;
+                    }
+                }
+            } catch (IOException excp) {
+                throw error("could not read log %s", log);
+            }
+        }
+        List<long[]> records = new ArrayList<>();
+        for (Map.Entry<Long, Map<Integer, int[]>> position
+                 : book.entrySet()) {
+            for (Map.Entry<Integer, int[]> move
+                     : position.getValue().entrySet()) {
+                int[] counts = move.getValue();
+                records.add(new long[] { position.getKey(), move.getKey(),
+                                         counts[0], counts[1] });
+            }
+        }
+        records.sort((r0, r1) -> r0[0] != r1[0] ? Long.compare(r0[0], r1[0])
+                     : r0[2] != r1[2] ? Long.compare(r1[2], r0[2])
+                     : Long.compare(r1[3], r0[3]));
+        long size = HEADER_BYTES + (long) records.size() * RECORD_BYTES;
+        try (FileChannel channel =
+             FileChannel.open(Paths.get(fileName),
+                              StandardOpenOption.CREATE,
+                              StandardOpenOption.TRUNCATE_EXISTING,
+                              StandardOpenOption.READ,
+                              StandardOpenOption.WRITE)) {
+            MappedByteBuffer out =
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putLong(MAGIC);
+            out.putInt(records.size());
+            for (long[] record : records) {
+                out.putLong(record[0]);
+                out.putInt((int) record[1]);
+                out.putInt((int) record[2]);
+                out.putInt((int) record[3]);
+            }
+            out.force();
+        } catch (IOException excp) {
+            throw error("could not write opening book %s", fileName);
+        }
+        return records.size();
+    }
+
+    /** Add to BOOK, which maps position keys to maps from packed moves
+     *  to their weights and visits, the first PLIES of the packed MOVES
+     *  of a game won by WINNER (null if unfinished). */
+    private static void record(Map<Long, Map<Integer, int[]>> book,
+                               List<Integer> moves, Piece winner,
+                               int plies) {
+        Board board = new Board();
+        for (int i = 0; i < moves.size() && i < plies; i += 1) {
+            int sym = board.canonicalSymmetry();
+            int[] counts = book.computeIfAbsent(board.canonicalKey(),
+                                                k -> new HashMap<>())
+                .computeIfAbsent(Move.symmetric(sym, moves.get(i)),
+                                 m -> new int[2]);
+            if (board.turn() == winner) {
+                counts[0] += 1;
+            }
+            counts[1] += 1;
+            board.makeMove(moves.get(i));
+        }
+    }
+
+    /** Matches comments in logs. */
+    private static final Pattern COMMENT = Pattern.compile("#.*");
+
+    /** Marks the start of an opening book file. */
+    private static final long MAGIC = 0x616d617a424f4b32L;
+
+    /** Bytes in the header: MAGIC and the number of records. */
+    private static final int HEADER_BYTES = Long.BYTES + Integer.BYTES;
+
+    /** Offsets of the fields of a record after its key, and the size of
+     *  a record. */
+    private static final int
+        MOVE = Long.BYTES,
+        WEIGHT = MOVE + Integer.BYTES,
+        VISITS = WEIGHT + Integer.BYTES,
+        RECORD_BYTES = VISITS + Integer.BYTES;
+
+    /** The mapped file. */
+    private final MappedByteBuffer _records;
+    /** My number of records. */
+    private final int _size;
+}
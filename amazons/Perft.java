@@ -0,0 +1,50 @@
+package amazons;
+
+/** A move-generation check and benchmark.  Counts the positions
+ *  reachable from the initial position in exactly N moves (the
+ *  "perft" number), using the allocation-free Board.legalMoves,
+ *  and reports the time taken.
+ *  @author Nicholas Moy.
+ */
+public class Perft {
+
+    /** Print the perft count for each depth from 1 up to ARGS[0]
+     *  (default 2), with timings. */
+    public static void main(String... args) {
+        int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        for (int depth = 1; depth <= maxDepth; depth += 1) {
+            Perft perft = new Perft(depth);
+            long start = System.nanoTime();
+            long count = perft.count(new Board(), depth);
+            long nanos = System.nanoTime() - start;
+            System.out.printf("perft(%d) = %d  (%.3f s, %.0f nodes/s)%n",
+                              depth, count, nanos * 1e-9,
+                              count * 1e9 / Math.max(nanos, 1));
+        }
+    }
+
+    /** A counter able to search to depth DEPTH. */
+    Perft(int depth) {
+        _moves = new int[depth + 1][Board.MAX_MOVES];
+    }
+
+    /** Return the number of move sequences of length DEPTH from
+     *  BOARD.  BOARD is restored before returning. */
+    long count(Board board, int depth) {
+        int[] moves = _moves[depth];
+        int n = board.legalMoves(board.turn(), moves);
+        if (depth <= 1) {
+            return depth == 1 ? n : 1;
+        }
+        long total = 0;
+        for (int i = 0; i < n; i += 1) {
+            board.makeMove(moves[i]);
+            total += count(board, depth - 1);
+            board.undo();
+        }
+        return total;
+    }
+
+    /** Move buffers, indexed by remaining depth. */
+    private final int[][] _moves;
+}
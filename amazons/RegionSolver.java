@@ -0,0 +1,266 @@
+package amazons;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.Long.bitCount;
+import static amazons.Piece.*;
+
+/** An analyzer for Amazons endgames.  Late in the game, spears divide
+ *  the board into regions (see Board.regions) that amazons cannot move
+ *  between.  A region holding amazons of only one color is settled:
+ *  its only effect on the game is the number of moves its owner can
+ *  make in it, which is found exactly by exhaustive search and cached
+ *  by the region's masks.  When every region is settled, the winner
+ *  follows by counting: the player to move wins iff it has more moves
+ *  left than its opponent.  Otherwise, only moves in the contested
+ *  regions need to be searched, plus one move in a settled region to
+ *  stand for all the ways of spending a tempo there.
+ *
+ *  Small regions are looked up in a Tablebase, if one is supplied.
+ *  A RegionSolver holds working storage for the analysis, and so may
+ *  be used by only one thread at a time.  The cache of solved regions
+ *  is shared.
+ *  @author Nicholas Moy.
+ */
+final class RegionSolver {
+
+    /** Regions with more empty squares than this are not solved. */
+    static final int MAX_SOLVED_SQUARES = 10;
+
+    /** A solver that looks up regions in TABLEBASE, if it is not
+     *  null, before solving them. */
+    RegionSolver(Tablebase tablebase) {
+        _tablebase = tablebase;
+    }
+
+    /** Analyze BOARD, making the results available through winner,
+     *  searchLo, searchHi, and tempoMove until the next call. */
+    void analyze(Board board) {
+        _turn = board.turn();
+        int n = board.regions(_regionsLo, _regionsHi);
+        long emptyLo = board.maskLo(EMPTY), emptyHi = board.maskHi(EMPTY);
+        _searchLo = _searchHi = 0;
+        _settled = true;
+        for (Piece side : SIDES) {
+            _moves[side.ordinal()] = 0;
+            _tempo[side.ordinal()] = -1;
+        }
+        for (int r = 0; r < n; r += 1) {
+            long lo = _regionsLo[r], hi = _regionsHi[r];
+            long whiteLo = lo & board.maskLo(WHITE),
+                whiteHi = hi & board.maskHi(WHITE),
+                blackLo = lo & board.maskLo(BLACK),
+                blackHi = hi & board.maskHi(BLACK);
+            boolean white = (whiteLo | whiteHi) != 0,
+                black = (blackLo | blackHi) != 0;
+            if (!white && !black) {
+                continue;
+            }
+            long regionEmptyLo = lo & emptyLo, regionEmptyHi = hi & emptyHi;
+            if ((white && black)
+                || bitCount(regionEmptyLo) + bitCount(regionEmptyHi)
+                   > MAX_SOLVED_SQUARES) {
+                _settled = false;
+                _searchLo |= lo;
+                _searchHi |= hi;
+                continue;
+            }
+            Piece owner = white ? WHITE : BLACK;
+            long amazonsLo = white ? whiteLo : blackLo,
+                amazonsHi = white ? whiteHi : blackHi;
+            int solution = _tablebase == null ? -1
+                : _tablebase.probe(regionEmptyLo, regionEmptyHi,
+                                   amazonsLo, amazonsHi);
+            if (solution < 0) {
+                solution = solve(regionEmptyLo, regionEmptyHi,
+                                 amazonsLo, amazonsHi);
+            }
+            _moves[owner.ordinal()] += solution >>> MOVE_BITS;
+            if (solution >>> MOVE_BITS > 0) {
+                _tempo[owner.ordinal()] = solution & MOVE_MASK;
+            }
+        }
+    }
+
+    /** Return the winner of the last position analyzed, or null if it
+     *  has contested or unsolved regions. */
+    Piece winner() {
+        if (!_settled) {
+            return null;
+        }
+        Piece other = _turn.opponent();
+        return _moves[_turn.ordinal()] > _moves[other.ordinal()]
+            ? _turn : other;
+    }
+
+    /** Return the low word of the mask of squares in the contested or
+     *  unsolved regions of the last position analyzed.  Moves by
+     *  amazons outside these need not be searched, apart from
+     *  tempoMove. */
+    long searchLo() {
+        return _searchLo;
+    }
+
+    /** Return the high word of the mask described for searchLo. */
+    long searchHi() {
+        return _searchHi;
+    }
+
+    /** Return a packed move for SIDE in a settled region of the last
+     *  position analyzed that leaves SIDE the greatest possible number
+     *  of moves there afterwards, or -1 if SIDE has no moves in settled
+     *  regions. */
+    int tempoMove(Piece side) {
+        return _tempo[side.ordinal()];
+    }
+
+    /** Return the greatest number of moves that the amazons on the
+     *  squares in the mask with words AMAZONSLO and AMAZONSHI can make
+     *  in a region with no other amazons whose empty squares are those
+     *  in the mask with words EMPTYLO and EMPTYHI, shifted left by
+     *  MOVE_BITS, plus the first of those moves, packed (MOVE_MASK if
+     *  there are none). */
+    static int solve(long emptyLo, long emptyHi,
+                     long amazonsLo, long amazonsHi) {
+        Region key = new Region(emptyLo, emptyHi, amazonsLo, amazonsHi);
+        Integer cached = SOLVED.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        int limit = bitCount(emptyLo) + bitCount(emptyHi);
+        int best = 0, bestMove = MOVE_MASK;
+    search:
+        for (int w = 0; w < 2; w += 1) {
+            long amazons = w == 0 ? amazonsLo : amazonsHi;
+            while (amazons != 0) {
+                int from = w * Long.SIZE + Long.numberOfTrailingZeros(amazons);
+                amazons &= amazons - 1;
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int to : Square.ray(from, dir)) {
+                        if (!isSet(emptyLo, emptyHi, to)) {
+                            break;
+                        }
+                        long movedLo = flip(emptyLo, 0, from, to),
+                            movedHi = flip(emptyHi, 1, from, to);
+                        for (int sdir = 0; sdir < 8; sdir += 1) {
+                            for (int spear : Square.ray(to, sdir)) {
+                                if (!isSet(movedLo, movedHi, spear)) {
+                                    break;
+                                }
+                                int count = 1 + (solve(
+                                    flip(movedLo, 0, spear, spear),
+                                    flip(movedHi, 1, spear, spear),
+                                    flip(amazonsLo, 0, from, to),
+                                    flip(amazonsHi, 1, from, to))
+                                    >>> MOVE_BITS);
+                                if (count > best) {
+                                    best = count;
+                                    bestMove = Move.pack(from, to, spear);
+                                    if (best == limit) {
+                                        break search;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        int result = (best << MOVE_BITS) | bestMove;
+        if (SOLVED.size() >= MAX_CACHED) {
+            SOLVED.clear();
+        }
+        SOLVED.put(key, result);
+        return result;
+    }
+
+    /** Return WORD, the low (HALF == 0) or high (HALF == 1) word of a
+     *  mask, with the bits for the squares with indices A and B
+     *  toggled.  If A == B, toggles that bit once. */
+    private static long flip(long word, int half, int a, int b) {
+        long bits = 0;
+        if (a / Long.SIZE == half) {
+            bits |= 1L << (a % Long.SIZE);
+        }
+        if (b != a && b / Long.SIZE == half) {
+            bits |= 1L << (b % Long.SIZE);
+        }
+        return word ^ bits;
+    }
+
+    /** Return true iff the square with index INDEX is in the mask whose
+     *  low and high words are LO and HI. */
+    static boolean isSet(long lo, long hi, int index) {
+        if (index < Long.SIZE) {
+            return (lo & (1L << index)) != 0;
+        }
+        return (hi & (1L << (index - Long.SIZE))) != 0;
+    }
+
+    /** The cache key for a settled region: the masks of its empty
+     *  squares and of its amazons. */
+    private static final class Region {
+
+        /** The region with empty squares in the mask with words EMPTYLO
+         *  and EMPTYHI and amazons in the mask with words AMAZONSLO and
+         *  AMAZONSHI. */
+        Region(long emptyLo, long emptyHi, long amazonsLo, long amazonsHi) {
+            _emptyLo = emptyLo;
+            _emptyHi = emptyHi;
+            _amazonsLo = amazonsLo;
+            _amazonsHi = amazonsHi;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Region)) {
+                return false;
+            }
+            Region other = (Region) obj;
+            return _emptyLo == other._emptyLo && _emptyHi == other._emptyHi
+                && _amazonsLo == other._amazonsLo
+                && _amazonsHi == other._amazonsHi;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(_emptyLo * 31 + _emptyHi)
+                ^ Long.hashCode(_amazonsLo * 17 + _amazonsHi);
+        }
+
+        /** The masks defining the region. */
+        private final long _emptyLo, _emptyHi, _amazonsLo, _amazonsHi;
+    }
+
+    /** The two sides. */
+    private static final Piece[] SIDES = { WHITE, BLACK };
+
+    /** Number of bits in a packed move, and a mask extracting one. */
+    private static final int MOVE_BITS = 21, MOVE_MASK = (1 << MOVE_BITS) - 1;
+
+    /** Number of solved regions cached before the cache is emptied. */
+    private static final int MAX_CACHED = 1 << 20;
+
+    /** Solutions to settled regions, as returned by solve. */
+    private static final Map<Region, Integer> SOLVED =
+        new ConcurrentHashMap<>();
+
+    /** The table of small regions, or null. */
+    private final Tablebase _tablebase;
+    /** Work space for the masks of the regions. */
+    private final long[] _regionsLo = new long[Board.SIZE * Board.SIZE],
+        _regionsHi = new long[Board.SIZE * Board.SIZE];
+    /** The side to move in the last position analyzed. */
+    private Piece _turn;
+    /** True iff every region of the last position analyzed is
+     *  settled and solved. */
+    private boolean _settled;
+    /** The mask of squares in contested or unsolved regions. */
+    private long _searchLo, _searchHi;
+    /** Numbers of moves each side (by ordinal) can make in its settled
+     *  regions. */
+    private final int[] _moves = new int[Piece.values().length];
+    /** Tempo moves for each side (by ordinal), or -1. */
+    private final int[] _tempo = new int[Piece.values().length];
+}
@@ -0,0 +1,360 @@
+package amazons;
+
+/** Tuning parameters for the AI player, normally taken from the
+ *  command line (see Main).  A single SearchConfig is shared by all
+ *  the AI players created from the same template.
+ *  @author Nicholas Moy.
+ */
+final class SearchConfig {
+
+    /** Default size of the evaluation cache, in bytes. */
+    static final long DEFAULT_EVAL_CACHE_BYTES = 16L << 20;
+
+    /** Default time allowed to choose a move, in milliseconds. */
+    static final long DEFAULT_MOVE_TIME_MILLIS = 1000;
+
+    /** Default number of moves at each node searched before late move
+     *  reductions start. */
+    static final int DEFAULT_LATE_MOVES = 8;
+
+    /** Default number of plies by which late moves are reduced. */
+    static final int DEFAULT_LATE_MOVE_REDUCTION = 1;
+
+    /** Return the time allowed to choose a move, in milliseconds. */
+    long moveTimeMillis() {
+        return _moveTimeMillis;
+    }
+
+    /** Set the time allowed to choose a move to MILLIS milliseconds. */
+    void setMoveTimeMillis(long millis) {
+        _moveTimeMillis = millis;
+    }
+
+    /** Return the time in milliseconds that SIDE, choosing a move on
+     *  BOARD in the game run by CONTROLLER, should aim to spend.  When
+     *  the game has no time limits, this is moveTimeMillis().
+     *  Otherwise, SIDE's remaining time is divided by an estimate of
+     *  the number of moves it has left, based on the number of empty
+     *  squares and on its mobility, less being spent in the opening.
+     *  The result is at most moveLimitMillis(CONTROLLER, SIDE). */
+    long moveTargetMillis(Controller controller, Piece side, Board board) {
+        long limit = moveLimitMillis(controller, side);
+        if (!controller.timed()) {
+            return limit;
+        }
+        long remaining = controller.timeRemaining(side);
+        long target = limit;
+        if (remaining != Long.MAX_VALUE) {
+            int empty = Board.SIZE * Board.SIZE - 8 - board.numMoves();
+            int movesToGo = Math.max(MIN_MOVES_TO_GO, empty * 2 / 5);
+            if (board.mobility(side) < ENDGAME_MOBILITY) {
+                movesToGo = Math.max(MIN_MOVES_TO_GO, movesToGo / 2);
+            }
+            target = remaining / movesToGo;
+        }
+        if (board.numMoves() < OPENING_MOVES) {
+            target = target * 3 / 4;
+        }
+        return Math.max(Math.min(target, limit), MIN_MOVE_MILLIS);
+    }
+
+    /** Return the most time in milliseconds that SIDE may spend
+     *  choosing a move in the game run by CONTROLLER.  When the game has
+     *  no time limits, this is moveTimeMillis().  Otherwise, it is at
+     *  most half of SIDE's remaining time, and within the single-move
+     *  limit, leaving a margin for overhead. */
+    long moveLimitMillis(Controller controller, Piece side) {
+        if (!controller.timed()) {
+            return _moveTimeMillis;
+        }
+        long moveLimit = controller.moveTimeLimit(),
+            remaining = controller.timeRemaining(side);
+        long limit = remaining == Long.MAX_VALUE ? Long.MAX_VALUE
+            : remaining / 2 - SAFETY_MILLIS;
+        if (moveLimit > 0) {
+            limit = Math.min(limit, moveLimit - moveLimit / 10
+                             - SAFETY_MILLIS);
+        }
+        return Math.max(limit, MIN_MOVE_MILLIS);
+    }
+
+    /** Default size of the transposition table, in bytes. */
+    static final long DEFAULT_TABLE_BYTES = 64L << 20;
+
+    /** Return the size of the transposition table, in bytes. */
+    long tableBytes() {
+        return _tableBytes;
+    }
+
+    /** Set the size of the transposition table to BYTES. */
+    void setTableBytes(long bytes) {
+        _tableBytes = bytes;
+    }
+
+    /** Return the number of threads to search with. */
+    int threads() {
+        return _threads;
+    }
+
+    /** Set the number of threads to search with to THREADS (at
+     *  least 1). */
+    void setThreads(int threads) {
+        _threads = Math.max(1, threads);
+    }
+
+    /** Return true iff my threads divide up the search tree by Young
+     *  Brothers Wait rather than each searching all of it (Lazy
+     *  SMP). */
+    boolean youngBrothersWait() {
+        return _youngBrothersWait;
+    }
+
+    /** Make my threads divide up the search tree by Young Brothers Wait
+     *  iff ON. */
+    void setYoungBrothersWait(boolean on) {
+        _youngBrothersWait = on;
+    }
+
+    /** Return the number of amazon moves searched at ply PLY by the
+     *  selective move generator (see Board.selectedMoves), or 0 if
+     *  all are searched. */
+    int queenWidth(int ply) {
+        return width(_queenWidths, ply);
+    }
+
+    /** Return the number of spear throws searched after each amazon
+     *  move at ply PLY, or 0 if all are searched. */
+    int arrowWidth(int ply) {
+        return width(_arrowWidths, ply);
+    }
+
+    /** Set the numbers of amazon moves and spear throws searched at
+     *  ply k to QUEENS[k] and ARROWS[k] (0 for all).  Plies beyond the
+     *  end of the arrays use their last entries, and empty arrays mean
+     *  that every move is searched. */
+    void setWidths(int[] queens, int[] arrows) {
+        _queenWidths = queens.clone();
+        _arrowWidths = arrows.clone();
+    }
+
+    /** Return the entry of WIDTHS for PLY as described for
+     *  setWidths. */
+    private static int width(int[] widths, int ply) {
+        if (widths.length == 0) {
+            return 0;
+        }
+        return widths[Math.min(ply, widths.length - 1)];
+    }
+
+    /** Return true iff the search uses null windows for all but the
+     *  first move at each node (principal variation search). */
+    boolean principalVariationSearch() {
+        return _principalVariationSearch;
+    }
+
+    /** Use principal variation search iff ON. */
+    void setPrincipalVariationSearch(boolean on) {
+        _principalVariationSearch = on;
+    }
+
+    /** Return true iff each iteration of the search starts with a
+     *  narrow window around the previous iteration's value. */
+    boolean aspirationWindows() {
+        return _aspirationWindows;
+    }
+
+    /** Use aspiration windows iff ON. */
+    void setAspirationWindows(boolean on) {
+        _aspirationWindows = on;
+    }
+
+    /** Return the number of moves at each node searched before late
+     *  move reductions start, or 0 if moves are never reduced. */
+    int lateMoves() {
+        return _lateMoves;
+    }
+
+    /** Return the number of plies by which late moves are reduced. */
+    int lateMoveReduction() {
+        return _lateMoveReduction;
+    }
+
+    /** Reduce the depth of each move after the first MOVES at a node
+     *  by REDUCTION plies (never reducing if MOVES is 0). */
+    void setLateMoveReductions(int moves, int reduction) {
+        _lateMoves = moves;
+        _lateMoveReduction = reduction;
+    }
+
+    /** Return the number of moves searched at nodes DEPTH plies from
+     *  the leaves of the search, or 0 if all are searched. */
+    int moveCountLimit(int depth) {
+        if (depth > _moveCountLimits.length) {
+            return 0;
+        }
+        return _moveCountLimits[depth - 1];
+    }
+
+    /** Search only the first LIMITS[d - 1] moves, in order, at nodes
+     *  d plies from the leaves (other than the root), or all of them
+     *  if that is 0 or d exceeds the length of LIMITS. */
+    void setMoveCountLimits(int[] limits) {
+        _moveCountLimits = limits.clone();
+    }
+
+    /** Return true iff the search may leave out moves without proving
+     *  them worse: by selective move generation, move count limits or
+     *  late move reductions.  Its values are then estimates, even when
+     *  they show a win. */
+    boolean forwardPruning() {
+        return _lateMoves > 0 || anyLimit(_queenWidths)
+            || anyLimit(_arrowWidths) || anyLimit(_moveCountLimits);
+    }
+
+    /** Return true iff LIMITS, as for setWidths or setMoveCountLimits,
+     *  limits the moves searched anywhere. */
+    private static boolean anyLimit(int[] limits) {
+        for (int limit : limits) {
+            if (limit != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return true iff positions are evaluated by territory (see
+     *  Territory) rather than by mobility. */
+    boolean territoryEvaluation() {
+        return _territoryEvaluation;
+    }
+
+    /** Evaluate positions by territory iff ON, and otherwise by
+     *  mobility. */
+    void setTerritoryEvaluation(boolean on) {
+        _territoryEvaluation = on;
+    }
+
+    /** Return true iff the search analyzes the regions into which
+     *  spears divide the board, solving those with amazons of only one
+     *  color exactly (see RegionSolver). */
+    boolean regionSolving() {
+        return _regionSolving;
+    }
+
+    /** Analyze regions iff ON. */
+    void setRegionSolving(boolean on) {
+        _regionSolving = on;
+    }
+
+    /** Default number of moves in an MCTSPlayer's playout before it
+     *  is cut off. */
+    static final int DEFAULT_PLAYOUT_PLIES = 8;
+
+    /** Default number of nodes in an MCTSPlayer's tree. */
+    static final int DEFAULT_TREE_NODES = 1 << 20;
+
+    /** Return the number of random moves an MCTSPlayer makes in a
+     *  playout before evaluating the position statically, or 0 if it
+     *  plays out to the end of the game. */
+    int playoutPlies() {
+        return _playoutPlies;
+    }
+
+    /** Cut off MCTSPlayer playouts after PLIES moves (0 for never). */
+    void setPlayoutPlies(int plies) {
+        _playoutPlies = plies;
+    }
+
+    /** Return the number of nodes in an MCTSPlayer's node pool. */
+    int treeNodes() {
+        return _treeNodes;
+    }
+
+    /** Give MCTSPlayers pools of NODES nodes (at least 1). */
+    void setTreeNodes(int nodes) {
+        _treeNodes = Math.max(1, nodes);
+    }
+
+    /** Return the name of the file holding the Tablebase of small
+     *  regions, or null if there is none. */
+    String tablebaseFile() {
+        return _tablebaseFile;
+    }
+
+    /** Use the Tablebase in the file named FILENAME (none if null). */
+    void setTablebaseFile(String fileName) {
+        _tablebaseFile = fileName;
+    }
+
+    /** Return the name of the file holding the OpeningBook, or null if
+     *  there is none. */
+    String bookFile() {
+        return _bookFile;
+    }
+
+    /** Use the OpeningBook in the file named FILENAME (none if null). */
+    void setBookFile(String fileName) {
+        _bookFile = fileName;
+    }
+
+    /** Return the memory budget for the evaluation cache, in bytes. */
+    long evalCacheBytes() {
+        return _evalCacheBytes;
+    }
+
+    /** Set the memory budget for the evaluation cache to BYTES. */
+    void setEvalCacheBytes(long bytes) {
+        _evalCacheBytes = bytes;
+    }
+
+    /** Fewest moves a player is assumed to have left in a timed
+     *  game. */
+    private static final int MIN_MOVES_TO_GO = 4;
+    /** Mobility below which a player is considered to be in the
+     *  endgame, with fewer moves to come than empty squares suggest. */
+    private static final int ENDGAME_MOBILITY = 100;
+    /** Number of moves in the game considered to be the opening. */
+    private static final int OPENING_MOVES = 10;
+    /** Time in milliseconds reserved for overhead outside the search. */
+    private static final long SAFETY_MILLIS = 100;
+    /** Least time in milliseconds spent on any move. */
+    private static final long MIN_MOVE_MILLIS = 20;
+
+    /** Time allowed to choose a move, in milliseconds. */
+    private long _moveTimeMillis = DEFAULT_MOVE_TIME_MILLIS;
+    /** Number of search threads. */
+    private int _threads = 1;
+    /** Numbers of amazon moves searched, by ply (see setWidths). */
+    private int[] _queenWidths = {};
+    /** Numbers of spear throws searched, by ply (see setWidths). */
+    private int[] _arrowWidths = {};
+    /** Number of moves searched before late move reductions start
+     *  (0 for none). */
+    private int _lateMoves = DEFAULT_LATE_MOVES;
+    /** Number of plies by which late moves are reduced. */
+    private int _lateMoveReduction = DEFAULT_LATE_MOVE_REDUCTION;
+    /** Move count limits, by depth (see setMoveCountLimits). */
+    private int[] _moveCountLimits = {};
+    /** True iff positions are evaluated by territory. */
+    private boolean _territoryEvaluation = true;
+    /** True iff the search analyzes regions. */
+    private boolean _regionSolving = true;
+    /** Number of moves in an MCTSPlayer playout (0 for all). */
+    private int _playoutPlies = DEFAULT_PLAYOUT_PLIES;
+    /** Number of nodes in an MCTSPlayer's pool. */
+    private int _treeNodes = DEFAULT_TREE_NODES;
+    /** Name of the tablebase file, or null. */
+    private String _tablebaseFile;
+    /** Name of the opening book file, or null. */
+    private String _bookFile;
+    /** True iff the search uses principal variation search. */
+    private boolean _principalVariationSearch = true;
+    /** True iff the search uses aspiration windows. */
+    private boolean _aspirationWindows = true;
+    /** True iff the threads use Young Brothers Wait. */
+    private boolean _youngBrothersWait;
+    /** Size of the transposition table, in bytes. */
+    private long _tableBytes = DEFAULT_TABLE_BYTES;
+    /** Memory budget for the evaluation cache, in bytes. */
+    private long _evalCacheBytes = DEFAULT_EVAL_CACHE_BYTES;
+}
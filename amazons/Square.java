@@ -5,7 +5,6 @@ import java.util.Iterator;
 import java.util.List;
 
 import static amazons.Utils.*;
-import static amazons.Piece.*;
 
 
 /** Represents a position on an Amazons board.  Positions are numbered
@@ -49,17 +48,7 @@ final class Square {
             throw new NullPointerException(
                     "Null square passed into isQueenMove");
         }
-        if (this.row() == to.row() && this.col() == to.col()) {
-            return false;
-        }
-        if (this.col() == to.col() || this.row() == to.row()) {
-            return true;
-        }
-        if (Math.abs(to.row() - this.row())
-                == Math.abs(to.col() - this.col())) {
-            return true;
-        }
-        return false;
+        return DIRECTIONS[_index][to._index] >= 0;
     }
 
     /** Definitions of direction for queenMove.  DIR[k] = (dcol, drow)
@@ -79,46 +68,46 @@ final class Square {
         if (dir < 0 || dir > 7) {
             return null;
         }
-        int drow = DIR[dir][1];
-        int dcol = DIR[dir][0];
-        int nrow = this.row() + (steps * drow);
-        int ncol = this.col() + (steps * dcol);
-        if (!exists(ncol, nrow)) {
+        if (steps <= 0) {
+            return steps == 0 ? this : queenMove((dir + 4) % 8, -steps);
+        }
+        int[] ray = RAYS[_index][dir];
+        if (steps > ray.length) {
             return null;
         }
-        return Square.sq(10 * nrow + ncol);
+        return SQUARES[ray[steps - 1]];
     }
 
     /** Return the direction (an int as defined in the documentation
      *  for queenMove) of the queen move THIS-TO. */
     int direction(Square to) {
         assert isQueenMove(to);
-        int dy = to.row() - this.row();
-        int dx = to.col() - this.col();
+        return DIRECTIONS[_index][to._index];
+    }
 
-        if (dx == 0) {
-            if (dy > 0) {
-                return 0;
-            }
-            return 4;
-        }
-        if (dy == 0) {
-            if (dx > 0) {
-                return 2;
-            }
-            return 6;
-        }
-        if (dx > 0) {
-            if (dy > 0) {
-                return 1;
-            }
-            return 3;
-        } else {
-            if (dy > 0) {
-                return 7;
-            }
-            return 5;
-        }
+    /** Return the indices of the squares reached by moving 1, 2, ...
+     *  steps in direction DIR from the square with index INDEX, nearest
+     *  first, stopping at the edge of the board.  The result is shared
+     *  and must not be modified. */
+    static int[] ray(int index, int dir) {
+        return RAYS[index][dir];
+    }
+
+    /** Number of symmetries of the board: the four rotations by
+     *  multiples of 90 degrees, each with and without a reflection. */
+    static final int SYMMETRIES = 8;
+
+    /** Return the index of the square to which symmetry SYM carries the
+     *  square with index INDEX.  Symmetry 0 is the identity; symmetry S
+     *  reflects left to right if S >= 4, and then rotates by S % 4
+     *  quarter turns. */
+    static int symmetric(int sym, int index) {
+        return SYMMETRIC[sym][index];
+    }
+
+    /** Return the symmetry that undoes symmetry SYM. */
+    static int inverse(int sym) {
+        return INVERSE[sym];
     }
 
     @Override
@@ -171,19 +160,6 @@ final class Square {
         _row = index / 10;
         _col = index % 10;
         _str = String.format("%s%d", (char) (_col + 'a'), _row + 1);
-        _piece = EMPTY;
-    }
-
-    /** Returns the piece at this square. */
-    Piece piece() {
-        return _piece;
-    }
-
-    /** Sets the piece at this square.
-     * @param p The piece to be added.
-     */
-    void setPiece(Piece p) {
-        _piece = p;
     }
 
     /** The cache of all created squares, by index. */
@@ -193,10 +169,72 @@ final class Square {
     /** SQUARES viewed as a List. */
     private static final List<Square> SQUARE_LIST = Arrays.asList(SQUARES);
 
+    /** RAYS[i][d] is the value of ray(i, d). */
+    private static final int[][][] RAYS =
+        new int[Board.SIZE * Board.SIZE][DIR.length][];
+
+    /** DIRECTIONS[i][j] is the direction of the queen move from the
+     *  square with index I to the square with index J, or -1 if there
+     *  is no such queen move. */
+    private static final byte[][] DIRECTIONS =
+        new byte[Board.SIZE * Board.SIZE][Board.SIZE * Board.SIZE];
+
+    /** SYMMETRIC[s][i] is the value of symmetric(s, i). */
+    private static final byte[][] SYMMETRIC =
+        new byte[SYMMETRIES][Board.SIZE * Board.SIZE];
+
+    /** INVERSE[s] is the value of inverse(s). */
+    private static final int[] INVERSE = new int[SYMMETRIES];
+
+    static {
+        int last = Board.SIZE - 1;
+        for (int sym = 0; sym < SYMMETRIES; sym += 1) {
+            for (int i = 0; i < Board.SIZE * Board.SIZE; i += 1) {
+                int col = i % Board.SIZE, row = i / Board.SIZE;
+                if (sym >= SYMMETRIES / 2) {
+                    col = last - col;
+                }
+                for (int turn = 0; turn < sym % 4; turn += 1) {
+                    int oldCol = col;
+                    col = last - row;
+                    row = oldCol;
+                }
+                SYMMETRIC[sym][i] = (byte) (row * Board.SIZE + col);
+            }
+        }
+        for (int sym = 0; sym < SYMMETRIES; sym += 1) {
+            for (int inv = 0; inv < SYMMETRIES; inv += 1) {
+                if (SYMMETRIC[inv][SYMMETRIC[sym][1]] == 1
+                    && SYMMETRIC[inv][SYMMETRIC[sym][Board.SIZE]]
+                       == Board.SIZE) {
+                    INVERSE[sym] = inv;
+                }
+            }
+        }
+    }
+
     static {
         for (int i = Board.SIZE * Board.SIZE - 1; i >= 0; i -= 1) {
             SQUARES[i] = new Square(i);
         }
+        for (int i = 0; i < SQUARES.length; i += 1) {
+            Arrays.fill(DIRECTIONS[i], (byte) -1);
+            for (int d = 0; d < DIR.length; d += 1) {
+                int col = i % Board.SIZE, row = i / Board.SIZE;
+                int len = 0;
+                while (exists(col + (len + 1) * DIR[d][0],
+                              row + (len + 1) * DIR[d][1])) {
+                    len += 1;
+                }
+                RAYS[i][d] = new int[len];
+                for (int k = 1; k <= len; k += 1) {
+                    int j = (row + k * DIR[d][1]) * Board.SIZE
+                        + col + k * DIR[d][0];
+                    RAYS[i][d][k - 1] = j;
+                    DIRECTIONS[i][j] = (byte) d;
+                }
+            }
+        }
     }
 
     /** My index position. */
@@ -207,7 +245,4 @@ final class Square {
 
     /** My String denotation. */
     private final String _str;
-
-    /** The piece at this square. */
-    private Piece _piece;
 }
@@ -0,0 +1,430 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static java.lang.Long.bitCount;
+import static amazons.Utils.error;
+
+/** A precomputed table of solutions to small settled regions (see
+ *  RegionSolver): for every king-connected region of at most a given
+ *  number of empty squares holding one or two amazons of the same
+ *  color, the number of moves they can make there and the first of
+ *  those moves.  Solutions do not depend on where a region lies on the
+ *  board or on which way it faces, so regions are carried by the
+ *  symmetry of the board (see Square.symmetric) that gives the least
+ *  hash and translated toward a1 (the lower left) before lookup, and
+ *  only regions that are already in that form are stored.
+ *
+ *  The table lives in a file, built once by main, that is mapped into
+ *  memory when opened and probed in place.  The file holds a header
+ *  followed by an open-addressed hash table of longs (see VALUE_BITS),
+ *  so a probe touches one or two slots and creates nothing.  Any number
+ *  of threads may probe a Tablebase at once.
+ *  @author Nicholas Moy.
+ */
+public final class Tablebase {
+
+    /** The largest number of empty squares in a tabulated region. */
+    static final int MAX_SQUARES = RegionSolver.MAX_SOLVED_SQUARES;
+
+    /** The largest number of amazons in a tabulated region. */
+    static final int MAX_AMAZONS = 2;
+
+    /** Default number of empty squares for main. */
+    static final int DEFAULT_SQUARES = 6;
+
+    /** Build a table of regions with up to ARGS[1] (default
+     *  DEFAULT_SQUARES) empty squares into the file named ARGS[0],
+     *  reporting its size and the time taken. */
+    public static void main(String... args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java amazons.Tablebase FILE"
+                               + " [SQUARES]");
+            System.exit(1);
+        }
+        int squares = DEFAULT_SQUARES;
+        try {
+            if (args.length > 1) {
+                squares = Integer.parseInt(args[1]);
+            }
+        } catch (NumberFormatException excp) {
+            squares = -1;
+        }
+        if (squares < 0 || squares > MAX_SQUARES) {
+            System.err.printf("SQUARES must be between 0 and %d%n",
+                              MAX_SQUARES);
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        int entries = build(args[0], squares);
+        System.out.printf("%d regions (%.3f s)%n", entries,
+                          (System.nanoTime() - start) * 1e-9);
+    }
+
+    /** The table in the file named FILENAME, as written by build. */
+    Tablebase(String fileName) {
+        try (FileChannel channel =
+             FileChannel.open(Paths.get(fileName),
+                              StandardOpenOption.READ)) {
+            _slots = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                 channel.size());
+        } catch (IOException excp) {
+            throw error("could not read tablebase %s", fileName);
+        }
+        if (_slots.capacity() < HEADER_BYTES
+            || _slots.getLong(0) != MAGIC) {
+            throw error("%s is not a tablebase", fileName);
+        }
+        _maxSquares = _slots.getInt(Long.BYTES);
+        long slots = 1L << _slots.getInt(Long.BYTES + Integer.BYTES);
+        if (_slots.capacity() != HEADER_BYTES + slots * Long.BYTES) {
+            throw error("tablebase %s is truncated", fileName);
+        }
+        _mask = (int) slots - 1;
+    }
+
+    /** Return the largest number of empty squares in my regions. */
+    int maxSquares() {
+        return _maxSquares;
+    }
+
+    /** Return the solution, in the form returned by RegionSolver.solve,
+     *  for the region whose empty squares are in the mask with words
+     *  EMPTYLO and EMPTYHI and whose amazons are in the mask with words
+     *  AMAZONSLO and AMAZONSHI, or -1 if I do not hold it. */
+    int probe(long emptyLo, long emptyHi, long amazonsLo, long amazonsHi) {
+        if (bitCount(emptyLo) + bitCount(emptyHi) > _maxSquares
+            || bitCount(amazonsLo) + bitCount(amazonsHi) > MAX_AMAZONS) {
+            return -1;
+        }
+        int sym = canonicalSymmetry(emptyLo, emptyHi, amazonsLo, amazonsHi);
+        long hash = symmetricHash(sym, emptyLo, emptyHi, amazonsLo, amazonsHi);
+        int offset = offset(symmetric(sym, emptyLo | amazonsLo,
+                                      emptyHi | amazonsHi, 0),
+                            symmetric(sym, emptyLo | amazonsLo,
+                                      emptyHi | amazonsHi, 1));
+        for (int slot = (int) hash & _mask; ; slot = (slot + 1) & _mask) {
+            long word = _slots.getLong(HEADER_BYTES + slot * Long.BYTES);
+            if (word == 0) {
+                return -1;
+            }
+            if (((word ^ hash) & ~VALUE_MASK) == 0) {
+                int value = (int) (word & VALUE_MASK);
+                int move = value & MOVE_MASK;
+                if (move != MOVE_MASK) {
+                    move = Move.symmetric(Square.inverse(sym),
+                                          Move.pack(Move.fromIndex(move)
+                                                    + offset,
+                                                    Move.toIndex(move)
+                                                    + offset,
+                                                    Move.spearIndex(move)
+                                                    + offset));
+                }
+                return (value & ~MOVE_MASK) | move;
+            }
+        }
+    }
+
+    /** Write to the file named FILENAME a table of every region with
+     *  at most SQUARES empty squares and one to MAX_AMAZONS amazons,
+     *  and return the number of regions. */
+    static int build(String fileName, int squares) {
+        Builder builder = new Builder(squares);
+        for (int anchor = 0; anchor < Board.SIZE; anchor += 1) {
+            long seenLo = (1L << anchor) | ((1L << anchor) - 1);
+            builder.grow(0, 0, 1L << anchor, 0, seenLo, 0, 0);
+        }
+        int n = builder._count;
+        int bits = 1;
+        while ((1 << bits) < 2 * n) {
+            bits += 1;
+        }
+        int mask = (1 << bits) - 1;
+        long size = HEADER_BYTES + ((long) mask + 1) * Long.BYTES;
+        try (FileChannel channel =
+             FileChannel.open(Paths.get(fileName),
+                              StandardOpenOption.CREATE,
+                              StandardOpenOption.TRUNCATE_EXISTING,
+                              StandardOpenOption.READ,
+                              StandardOpenOption.WRITE)) {
+            MappedByteBuffer out =
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putLong(0, MAGIC);
+            out.putInt(Long.BYTES, squares);
+            out.putInt(Long.BYTES + Integer.BYTES, bits);
+            for (int i = 0; i < n; i += 1) {
+                long hash = builder._hashes[i];
+                int slot = (int) hash & mask;
+                while (out.getLong(HEADER_BYTES + slot * Long.BYTES) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                out.putLong(HEADER_BYTES + slot * Long.BYTES,
+                            (hash & ~VALUE_MASK) | builder._values[i]);
+            }
+            out.force();
+        } catch (IOException excp) {
+            throw error("could not write tablebase %s", fileName);
+        }
+        return n;
+    }
+
+    /** An enumerator of the regions to be tabulated, collecting their
+     *  hashes and solutions. */
+    private static final class Builder {
+
+        /** A builder of regions with at most SQUARES empty squares. */
+        Builder(int squares) {
+            _squares = squares;
+        }
+
+        /** Extend the king-connected set of squares in the mask with
+         *  words SETLO and SETHI, of SIZE squares, by each square in the
+         *  mask with words UNTRIEDLO and UNTRIEDHI in turn, recording
+         *  each set so formed and extending it in turn, where the mask
+         *  with words SEENLO and SEENHI holds the squares that have been
+         *  in the set, in an untried mask, or excluded.  This is
+         *  Redelmeier's method, which forms each set with a given least
+         *  square (the anchor) exactly once. */
+        void grow(long setLo, long setHi, long untriedLo, long untriedHi,
+                  long seenLo, long seenHi, int size) {
+            while ((untriedLo | untriedHi) != 0) {
+                int k;
+                if (untriedLo != 0) {
+                    k = Long.numberOfTrailingZeros(untriedLo);
+                    untriedLo &= untriedLo - 1;
+                } else {
+                    k = Long.SIZE + Long.numberOfTrailingZeros(untriedHi);
+                    untriedHi &= untriedHi - 1;
+                }
+                long lo = setLo | lowBit(k), hi = setHi | highBit(k);
+                record(lo, hi, size + 1);
+                if (size + 1 < _squares + MAX_AMAZONS) {
+                    long newLo = 0, newHi = 0;
+                    for (int dir = 0; dir < 8; dir += 1) {
+                        int[] ray = Square.ray(k, dir);
+                        if (ray.length > 0) {
+                            newLo |= lowBit(ray[0]);
+                            newHi |= highBit(ray[0]);
+                        }
+                    }
+                    newLo &= ~seenLo;
+                    newHi &= ~seenHi;
+                    grow(lo, hi, untriedLo | newLo, untriedHi | newHi,
+                         seenLo | newLo, seenHi | newHi, size + 1);
+                }
+            }
+        }
+
+        /** Record every placement of amazons leaving at most _squares
+         *  empty squares in the set of SIZE squares in the mask with
+         *  words LO and HI, if that set touches the first column and
+         *  the result is in canonical form. */
+        private void record(long lo, long hi, int size) {
+            if (offset(lo, hi) != 0) {
+                return;
+            }
+            int[] squares = new int[size];
+            for (int i = 0, k = 0; i < size; k += 1) {
+                if (RegionSolver.isSet(lo, hi, k)) {
+                    squares[i] = k;
+                    i += 1;
+                }
+            }
+            for (int i = 0; i < size; i += 1) {
+                for (int j = i; j < size; j += 1) {
+                    int amazons = i == j ? 1 : 2;
+                    if (size - amazons > _squares) {
+                        continue;
+                    }
+                    long amazonsLo = lowBit(squares[i]) | lowBit(squares[j]),
+                        amazonsHi = highBit(squares[i]) | highBit(squares[j]);
+                    long emptyLo = lo & ~amazonsLo, emptyHi = hi & ~amazonsHi;
+                    long hash = symmetricHash(0, emptyLo, emptyHi,
+                                              amazonsLo, amazonsHi);
+                    int sym = canonicalSymmetry(emptyLo, emptyHi,
+                                                amazonsLo, amazonsHi);
+                    if (symmetricHash(sym, emptyLo, emptyHi,
+                                      amazonsLo, amazonsHi) == hash) {
+                        add(hash, RegionSolver.solve(emptyLo, emptyHi,
+                                                     amazonsLo, amazonsHi));
+                    }
+                }
+            }
+        }
+
+        /** Add an entry with hash HASH and solution VALUE. */
+        private void add(long hash, int value) {
+            if (_count == _hashes.length) {
+                _hashes = Arrays.copyOf(_hashes, 2 * _count);
+                _values = Arrays.copyOf(_values, 2 * _count);
+            }
+            _hashes[_count] = hash;
+            _values[_count] = value;
+            _count += 1;
+        }
+
+        /** The largest number of empty squares in a region. */
+        private final int _squares;
+        /** The hashes of the regions recorded so far. */
+        private long[] _hashes = new long[1024];
+        /** The solutions of the regions recorded so far. */
+        private int[] _values = new int[1024];
+        /** The number of regions recorded so far. */
+        private int _count;
+    }
+
+    /** Return the symmetry giving the least symmetricHash for the
+     *  region whose empty squares and amazons are in the masks with
+     *  words EMPTYLO, EMPTYHI and AMAZONSLO, AMAZONSHI. */
+    private static int canonicalSymmetry(long emptyLo, long emptyHi,
+                                         long amazonsLo, long amazonsHi) {
+        int result = 0;
+        long least = symmetricHash(0, emptyLo, emptyHi, amazonsLo, amazonsHi);
+        for (int sym = 1; sym < Square.SYMMETRIES; sym += 1) {
+            long hash =
+                symmetricHash(sym, emptyLo, emptyHi, amazonsLo, amazonsHi);
+            if (hash < least) {
+                least = hash;
+                result = sym;
+            }
+        }
+        return result;
+    }
+
+    /** Return the hash of the image under symmetry SYM of the region
+     *  whose empty squares and amazons are in the masks with words
+     *  EMPTYLO, EMPTYHI and AMAZONSLO, AMAZONSHI, translated toward a1
+     *  (see offset). */
+    private static long symmetricHash(int sym, long emptyLo, long emptyHi,
+                                      long amazonsLo, long amazonsHi) {
+        long eLo = symmetric(sym, emptyLo, emptyHi, 0),
+            eHi = symmetric(sym, emptyLo, emptyHi, 1),
+            aLo = symmetric(sym, amazonsLo, amazonsHi, 0),
+            aHi = symmetric(sym, amazonsLo, amazonsHi, 1);
+        int offset = offset(eLo | aLo, eHi | aHi);
+        return hash(downLo(eLo, eHi, offset), downHi(eHi, offset),
+                    downLo(aLo, aHi, offset), downHi(aHi, offset));
+    }
+
+    /** Return the low (HALF == 0) or high (HALF == 1) word of the image
+     *  under symmetry SYM of the mask with words LO and HI. */
+    private static long symmetric(int sym, long lo, long hi, int half) {
+        if (sym == 0) {
+            return half == 0 ? lo : hi;
+        }
+        long result = 0;
+        for (int w = 0; w < 2; w += 1) {
+            long bits = w == 0 ? lo : hi;
+            while (bits != 0) {
+                int k = Square.symmetric(sym, w * Long.SIZE
+                                         + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+                if (k / Long.SIZE == half) {
+                    result |= 1L << (k % Long.SIZE);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the amount by which the square indices in the nonempty
+     *  mask with words LO and HI must be reduced to move its squares as
+     *  far toward a1 as possible: down to row 1 and left to column a,
+     *  row 0 being the bottom rank. */
+    private static int offset(long lo, long hi) {
+        int first = lo != 0 ? Long.numberOfTrailingZeros(lo)
+            : Long.SIZE + Long.numberOfTrailingZeros(hi);
+        int col = 0;
+        while ((lo & COLUMNS_LO[col]) == 0 && (hi & COLUMNS_HI[col]) == 0) {
+            col += 1;
+        }
+        return (first / Board.SIZE) * Board.SIZE + col;
+    }
+
+    /** Return the low word of the mask with words LO and HI with each
+     *  square index reduced by N. */
+    private static long downLo(long lo, long hi, int n) {
+        if (n == 0) {
+            return lo;
+        } else if (n < Long.SIZE) {
+            return (lo >>> n) | (hi << (Long.SIZE - n));
+        } else {
+            return hi >>> (n - Long.SIZE);
+        }
+    }
+
+    /** Return the high word of a mask with high word HI with each
+     *  square index reduced by N. */
+    private static long downHi(long hi, int n) {
+        return n < Long.SIZE ? hi >>> n : 0;
+    }
+
+    /** Return the hash of the region whose empty squares and amazons
+     *  are in the masks with words EMPTYLO, EMPTYHI and AMAZONSLO,
+     *  AMAZONSHI. */
+    private static long hash(long emptyLo, long emptyHi,
+                             long amazonsLo, long amazonsHi) {
+        return mix(mix(mix(mix(emptyLo) ^ emptyHi) ^ amazonsLo) ^ amazonsHi);
+    }
+
+    /** Return a scrambled form of X (the finalizer of MurmurHash3). */
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
+    /** Return the low word of the mask of the square with index K. */
+    private static long lowBit(int k) {
+        return k < Long.SIZE ? 1L << k : 0;
+    }
+
+    /** Return the high word of the mask of the square with index K. */
+    private static long highBit(int k) {
+        return k < Long.SIZE ? 0 : 1L << (k - Long.SIZE);
+    }
+
+    /** Marks the start of a tablebase file. */
+    private static final long MAGIC = 0x616d617a54424c32L;
+
+    /** Bytes in the header: MAGIC, the largest number of empty squares
+     *  in a region, and the log of the number of slots. */
+    private static final int HEADER_BYTES = Long.BYTES + 2 * Integer.BYTES;
+
+    /** Layout of a slot: a solution, as returned by RegionSolver.solve
+     *  with the move translated as for the stored region, in the low
+     *  VALUE_BITS bits, and the rest of the region's hash above them.
+     *  A solution always includes a move or MOVE_MASK, so occupied
+     *  slots are never 0. */
+    private static final int VALUE_BITS = 26;
+    /** Mask extracting the solution from a slot. */
+    private static final long VALUE_MASK = (1L << VALUE_BITS) - 1;
+    /** Mask extracting a packed move from a solution. */
+    private static final int MOVE_MASK = (1 << 21) - 1;
+
+    /** COLUMNS_LO[c] and COLUMNS_HI[c] are the low and high words of
+     *  the mask of the squares in column C. */
+    private static final long[] COLUMNS_LO = new long[Board.SIZE],
+        COLUMNS_HI = new long[Board.SIZE];
+
+    static {
+        for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+            COLUMNS_LO[k % Board.SIZE] |= lowBit(k);
+            COLUMNS_HI[k % Board.SIZE] |= highBit(k);
+        }
+    }
+
+    /** The mapped file. */
+    private final MappedByteBuffer _slots;
+    /** Mask giving the first slot for a hash. */
+    private final int _mask;
+    /** The largest number of empty squares in my regions. */
+    private final int _maxSquares;
+}
@@ -0,0 +1,160 @@
+package amazons;
+
+import static java.lang.Long.bitCount;
+import static amazons.Piece.*;
+
+/** A static evaluator for Amazons positions based on territory.  For
+ *  each empty square, it finds how many queen moves (and separately,
+ *  how many king moves) through empty squares each side's nearest
+ *  amazon needs to reach it, and credits the square to the side that
+ *  gets there first.  In the opening, when little is enclosed, it also
+ *  counts the squares each side reaches in one queen move.
+ *
+ *  The distances come from breadth-first searches that advance all of
+ *  a side's amazons at once, one distance at a time, over 100-bit
+ *  masks of the empty squares held in pairs of longs (see
+ *  Board.maskLo), so that each step costs a few dozen shifts whatever
+ *  the number of squares involved.  A Territory holds working storage,
+ *  and so may be used by only one thread at a time.
+ *  @author Nicholas Moy.
+ */
+final class Territory {
+
+    /** Return the value of BOARD, positive if it favors WHITE and
+     *  negative if it favors BLACK.  The value blends the queen-move
+     *  territory, the king-move territory, and the difference in
+     *  one-move reach, giving the queen-move territory more weight as
+     *  the game proceeds (see PHASE_MOVES). */
+    int evaluate(Board board) {
+        _emptyLo = board.maskLo(EMPTY);
+        _emptyHi = board.maskHi(EMPTY);
+        _whiteLo = board.maskLo(WHITE);
+        _whiteHi = board.maskHi(WHITE);
+        _blackLo = board.maskLo(BLACK);
+        _blackHi = board.maskHi(BLACK);
+        int queenTerritory = race(true);
+        int reach = _reach;
+        int kingTerritory = race(false);
+        int phase = Math.min(board.numMoves(), PHASE_MOVES);
+        return (phase * QUEEN_WEIGHT * queenTerritory
+                + (PHASE_MOVES - phase) * (KING_WEIGHT * kingTerritory
+                                           + REACH_WEIGHT * reach))
+            / PHASE_MOVES;
+    }
+
+    /** Return the number of empty squares WHITE reaches strictly before
+     *  BLACK, minus the number BLACK reaches strictly before WHITE,
+     *  moving like queens if QUEEN, and otherwise like kings.  Squares
+     *  reached at the same distance count for neither side.  Also sets
+     *  _reach to the difference between the numbers of squares WHITE
+     *  and BLACK reach in one move. */
+    private int race(boolean queen) {
+        long wLo = _whiteLo, wHi = _whiteHi, bLo = _blackLo, bHi = _blackHi;
+        long seenWLo = wLo, seenWHi = wHi, seenBLo = bLo, seenBHi = bHi;
+        int result = 0;
+        for (int d = 1; (wLo | wHi | bLo | bHi) != 0; d += 1) {
+            step(wLo, wHi, queen);
+            long newWLo = _lo & ~seenWLo, newWHi = _hi & ~seenWHi;
+            step(bLo, bHi, queen);
+            long newBLo = _lo & ~seenBLo, newBHi = _hi & ~seenBHi;
+            result += bitCount(newWLo & ~seenBLo & ~newBLo)
+                + bitCount(newWHi & ~seenBHi & ~newBHi)
+                - bitCount(newBLo & ~seenWLo & ~newWLo)
+                - bitCount(newBHi & ~seenWHi & ~newWHi);
+            if (d == 1) {
+                _reach = bitCount(newWLo) + bitCount(newWHi)
+                    - bitCount(newBLo) - bitCount(newBHi);
+            }
+            seenWLo |= newWLo;
+            seenWHi |= newWHi;
+            seenBLo |= newBLo;
+            seenBHi |= newBHi;
+            wLo = newWLo;
+            wHi = newWHi;
+            bLo = newBLo;
+            bHi = newBHi;
+        }
+        return result;
+    }
+
+    /** Set _lo and _hi to the mask of empty squares reachable in one
+     *  queen move (if QUEEN) or king move (otherwise) from the squares
+     *  in the mask with words LO and HI. */
+    private void step(long lo, long hi, boolean queen) {
+        long resultLo = 0, resultHi = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            long frontLo = lo, frontHi = hi;
+            do {
+                shift(frontLo, frontHi, dir);
+                frontLo = _lo & _emptyLo;
+                frontHi = _hi & _emptyHi;
+                resultLo |= frontLo;
+                resultHi |= frontHi;
+            } while (queen && (frontLo | frontHi) != 0);
+        }
+        _lo = resultLo;
+        _hi = resultHi;
+    }
+
+    /** Set _lo and _hi to the mask of squares one step in direction DIR
+     *  (as for Square.direction) from the squares in the mask with words
+     *  LO and HI. */
+    private void shift(long lo, long hi, int dir) {
+        int n = SHIFTS[dir];
+        long resultLo, resultHi;
+        if (n > 0) {
+            resultLo = lo << n;
+            resultHi = (hi << n) | (lo >>> (Long.SIZE - n));
+        } else {
+            resultLo = (lo >>> -n) | (hi << (Long.SIZE + n));
+            resultHi = hi >>> -n;
+        }
+        _lo = resultLo & VALID_LO[dir];
+        _hi = resultHi & VALID_HI[dir];
+    }
+
+    /** Number of moves after which the queen-move territory counts
+     *  fully, and the king-move territory and the reach not at all. */
+    private static final int PHASE_MOVES = 60;
+    /** Weights of the parts of the value. */
+    private static final int
+        QUEEN_WEIGHT = 8, KING_WEIGHT = 4, REACH_WEIGHT = 2;
+
+    /** SHIFTS[d] is the change in square index for one step in
+     *  direction d (see Square.direction). */
+    private static final int[] SHIFTS = new int[8];
+
+    /** VALID_LO[d] and VALID_HI[d] are the low and high words of the
+     *  mask of squares that a step in direction d can reach without
+     *  wrapping around the edge of the board. */
+    private static final long[] VALID_LO = new long[8],
+        VALID_HI = new long[8];
+
+    static {
+        Square center = Square.sq(4, 4);
+        for (int dir = 0; dir < 8; dir += 1) {
+            SHIFTS[dir] = center.queenMove(dir, 1).index() - center.index();
+            int dcol = center.queenMove(dir, 1).col() - center.col();
+            for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+                int col = k % Board.SIZE;
+                if ((dcol > 0 && col == 0)
+                    || (dcol < 0 && col == Board.SIZE - 1)) {
+                    continue;
+                }
+                if (k < Long.SIZE) {
+                    VALID_LO[dir] |= 1L << k;
+                } else {
+                    VALID_HI[dir] |= 1L << (k - Long.SIZE);
+                }
+            }
+        }
+    }
+
+    /** Masks of the empty squares and of the squares holding each
+     *  side's amazons, for the position being evaluated. */
+    private long _emptyLo, _emptyHi, _whiteLo, _whiteHi, _blackLo, _blackHi;
+    /** The result of the last step or shift. */
+    private long _lo, _hi;
+    /** The one-move reach difference found by the last race. */
+    private int _reach;
+}
@@ -0,0 +1,136 @@
+package amazons;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** A transposition table: a large hash table recording, for positions
+ *  already searched, the depth of the search, its score and bound type,
+ *  and the best move found.  Entries are keyed by Zobrist key (see
+ *  Board.key) and stored outside the Java heap, in direct buffers, so
+ *  that tables of many gigabytes cost the garbage collector nothing.
+ *
+ *  Each key maps to one slot of two longs: the entry's data word and
+ *  its key XORed with the data word.  A probe accepts a slot only if
+ *  XORing the two gives back its key, so any number of threads may
+ *  store and probe concurrently without locks: a slot torn by
+ *  simultaneous stores simply reads as a miss.
+ *  @author Nicholas Moy.
+ */
+final class TranspositionTable {
+
+    /** Bound types.  EXACT: the score is the position's value.
+     *  LOWER: the value is at least the score.  UPPER: the value is at
+     *  most the score. */
+    static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+    /** Number of bytes of memory used per entry. */
+    static final int ENTRY_BYTES = 2 * Long.BYTES;
+
+    /** A table using at most BYTES bytes for its entries.  The number of
+     *  entries is the largest power of two that fits (at least one). */
+    TranspositionTable(long bytes) {
+        long entries = Long.highestOneBit(Math.max(bytes / ENTRY_BYTES, 1));
+        _mask = entries - 1;
+        int chunks = (int) Math.max(1, entries >>> CHUNK_SHIFT);
+        int chunkBytes = (int) (Math.min(entries, 1L << CHUNK_SHIFT)
+                                * ENTRY_BYTES);
+        _chunks = new ByteBuffer[chunks];
+        for (int i = 0; i < chunks; i += 1) {
+            _chunks[i] = ByteBuffer.allocateDirect(chunkBytes)
+                .order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /** Return the number of entries I can hold. */
+    long capacity() {
+        return _mask + 1;
+    }
+
+    /** Return the data word stored for KEY, or 0 if there is none.  The
+     *  parts of a nonzero result are extracted with depth, bound, score,
+     *  and move. */
+    long probe(long key) {
+        long slot = key & _mask;
+        ByteBuffer chunk = _chunks[(int) (slot >>> CHUNK_SHIFT)];
+        int offset = (int) (slot & CHUNK_MASK) * ENTRY_BYTES;
+        long data = chunk.getLong(offset);
+        long check = chunk.getLong(offset + Long.BYTES);
+        if (data != 0 && (check ^ data) == key) {
+            return data;
+        }
+        return 0;
+    }
+
+    /** Record that a search of DEPTH plies from the position with key
+     *  KEY gave SCORE, with bound type BOUND, and found packed MOVE (-1
+     *  if none) as the best move.  Replaces the slot's previous entry
+     *  unless that was a deeper search of the same position. */
+    void store(long key, int depth, int bound, int score, int move) {
+        long slot = key & _mask;
+        ByteBuffer chunk = _chunks[(int) (slot >>> CHUNK_SHIFT)];
+        int offset = (int) (slot & CHUNK_MASK) * ENTRY_BYTES;
+        long old = chunk.getLong(offset);
+        if (old != 0 && (chunk.getLong(offset + Long.BYTES) ^ old) == key
+            && depth(old) > depth) {
+            return;
+        }
+        long data = ((long) (move & MOVE_MASK) << MOVE_SHIFT)
+            | ((long) depth << DEPTH_SHIFT)
+            | ((long) bound << BOUND_SHIFT)
+            | (score & SCORE_MASK);
+        chunk.putLong(offset, data);
+        chunk.putLong(offset + Long.BYTES, key ^ data);
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        for (ByteBuffer chunk : _chunks) {
+            for (int i = 0; i < chunk.capacity(); i += Long.BYTES) {
+                chunk.putLong(i, 0);
+            }
+        }
+    }
+
+    /** Return the search depth recorded in data word DATA. */
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & DEPTH_MASK;
+    }
+
+    /** Return the bound type recorded in data word DATA. */
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+
+    /** Return the score recorded in data word DATA. */
+    static int score(long data) {
+        return (int) data;
+    }
+
+    /** Return the packed best move recorded in data word DATA, or -1 if
+     *  none was recorded. */
+    static int move(long data) {
+        int move = (int) (data >>> MOVE_SHIFT) & MOVE_MASK;
+        return move == MOVE_MASK ? -1 : move;
+    }
+
+    /** Layout of a data word: score in bits 0-31, bound type in bits
+     *  32-33, depth in bits 34-41, packed move (all ones for none) in
+     *  bits 42-62.  The bound type is never 0, so neither is a data
+     *  word. */
+    private static final int
+        BOUND_SHIFT = 32, BOUND_MASK = 0x3,
+        DEPTH_SHIFT = 34, DEPTH_MASK = 0xff,
+        MOVE_SHIFT = 42, MOVE_MASK = (1 << 21) - 1;
+    /** The bits of a data word holding the score. */
+    private static final long SCORE_MASK = 0xffffffffL;
+
+    /** Each buffer holds 2**CHUNK_SHIFT entries (1 GB). */
+    private static final int CHUNK_SHIFT = 26;
+    /** Mask giving the position of an entry within its buffer. */
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    /** The off-heap buffers holding my entries. */
+    private final ByteBuffer[] _chunks;
+    /** Mask giving the slot for a key. */
+    private final long _mask;
+}
@@ -6,7 +6,16 @@ import static amazons.Piece.*;
 import static org.junit.Assert.*;
 import ucb.junit.textui;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 /** The suite of all JUnit tests for the amazons package.
  *  @author Nicholas Moy.
@@ -31,6 +40,134 @@ public class UnitTest {
         assertEquals(b.get(3, 5), EMPTY);
     }
 
+    /** Tests that makeMove and undo update every square they touch,
+     *  including squares stored in the high word of the board. */
+    @Test
+    public void testMakeMoveUndo() {
+        Board b = new Board();
+        b.makeMove(Move.mv("d1-d7(g7)"));
+        assertEquals(EMPTY, b.get(3, 0));
+        assertEquals(WHITE, b.get(3, 6));
+        assertEquals(SPEAR, b.get(6, 6));
+        assertEquals(BLACK, b.turn());
+        b.makeMove(Move.mv("g10-g8(h8)"));
+        assertEquals(BLACK, b.get(6, 7));
+        assertEquals(SPEAR, b.get(7, 7));
+        b.undo();
+        b.undo();
+        assertEquals(INIT_BOARD_STATE, b.toString());
+        assertEquals(WHITE, b.turn());
+    }
+
+    /** Tests that a copied Board owns its position and history. */
+    @Test
+    public void testCopyIsIndependent() {
+        Board b = new Board();
+        b.makeMove(Move.mv("d1-d7(g7)"));
+        Board c = new Board(b);
+        c.makeMove(Move.mv("g10-g8(h8)"));
+        assertEquals(1, b.numMoves());
+        assertEquals(2, c.numMoves());
+        assertEquals(EMPTY, b.get(6, 7));
+        assertEquals(BLACK, c.get(6, 7));
+        b.undo();
+        assertEquals(INIT_BOARD_STATE, b.toString());
+        assertEquals(WHITE, c.get(3, 6));
+        c.undo();
+        c.undo();
+        assertEquals(INIT_BOARD_STATE, c.toString());
+        assertEquals(WHITE, c.turn());
+    }
+
+    /** Tests that Moves are unique and agree with their packed and
+     *  printed forms. */
+    @Test
+    public void testMoveEncoding() {
+        Move m = Move.mv("d1-d7(g7)");
+        assertSame(m, Move.mv("d1 d7 g7"));
+        assertSame(m, Move.mv(Square.sq(3, 0), Square.sq(3, 6),
+                              Square.sq(6, 6)));
+        assertSame(m, Move.mv(m.pack()));
+        assertEquals("d1-d7(g7)", m.toString());
+        assertEquals("d1-d7(g7)", Move.toString(m.pack()));
+        assertEquals(Square.sq(3, 6).index(), Move.toIndex(m.pack()));
+        assertSame(Move.mv("j10-a1(j10)"), Move.mv("j10 a1 j10"));
+        assertNull(Move.mv("d1-e3(e4)"));
+        assertNull(Move.mv("d1-d7(e9)"));
+    }
+
+    /** Tests that the position key is restored by undo and does not
+     *  depend on the order in which moves were made. */
+    @Test
+    public void testZobristKey() {
+        Board b = new Board();
+        long initial = b.key();
+        b.makeMove(Move.mv("d1-d2(d3)"));
+        b.makeMove(Move.mv("g10-g9(g8)"));
+        b.makeMove(Move.mv("g1-g2(g3)"));
+        long transposed = b.key();
+        assertNotEquals(initial, transposed);
+        b.undo();
+        b.undo();
+        b.undo();
+        assertEquals(initial, b.key());
+
+        b.makeMove(Move.mv("g1-g2(g3)"));
+        b.makeMove(Move.mv("g10-g9(g8)"));
+        b.makeMove(Move.mv("d1-d2(d3)"));
+        assertEquals(transposed, b.key());
+        assertEquals(transposed, new Board(b).key());
+
+
+        b = new Board();
+        b.put(SPEAR, Square.sq(4, 4));
+        b.put(BLACK, Square.sq(4, 4));
+        assertNotEquals(initial, b.key());
+        b.put(EMPTY, Square.sq(4, 4));
+        assertEquals(initial, b.key());
+    }
+
+    /** Tests lookup, replacement and counting in the evaluation cache. */
+    @Test
+    public void testEvalCache() {
+        EvalCache cache = new EvalCache(4 * EvalCache.ENTRY_BYTES + 1);
+        assertEquals(4, cache.capacity());
+        assertEquals(EvalCache.MISS, cache.get(17));
+        cache.put(17, -42);
+        assertEquals(-42, cache.get(17));
+        assertEquals(EvalCache.MISS, cache.get(21));
+        cache.put(21, 7);
+        assertEquals(7, cache.get(21));
+        assertEquals(EvalCache.MISS, cache.get(17));
+        assertEquals(2, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(EvalCache.MISS, new EvalCache(0).get(0));
+    }
+
+    /** Tests storing and probing transposition table entries. */
+    @Test
+    public void testTranspositionTable() {
+        TranspositionTable table =
+            new TranspositionTable(8 * TranspositionTable.ENTRY_BYTES);
+        assertEquals(8, table.capacity());
+        int move = Move.mv("d1-d7(g7)").pack();
+        assertEquals(0, table.probe(3));
+        table.store(3, 4, TranspositionTable.LOWER, -1234, move);
+        long data = table.probe(3);
+        assertEquals(4, TranspositionTable.depth(data));
+        assertEquals(TranspositionTable.LOWER,
+                     TranspositionTable.bound(data));
+        assertEquals(-1234, TranspositionTable.score(data));
+        assertEquals(move, TranspositionTable.move(data));
+        assertEquals(0, table.probe(11));
+
+        table.store(3, 2, TranspositionTable.EXACT, 5, -1);
+        assertEquals(4, TranspositionTable.depth(table.probe(3)));
+        table.store(11, 1, TranspositionTable.UPPER, 5, -1);
+        assertEquals(0, table.probe(3));
+        assertEquals(-1, TranspositionTable.move(table.probe(11)));
+    }
+
     /** Tests proper identification of legal/illegal queen moves. */
     @Test
     public void testIsQueenMove() {
@@ -217,6 +354,417 @@ public class UnitTest {
         assertEquals(7, numMoves);
     }
 
+    /** Tests counting moves without generating them. */
+    @Test
+    public void testMobility() {
+        Board b = new Board();
+        assertEquals(2176, b.mobility(WHITE));
+        assertEquals(2176, b.mobility(BLACK));
+        assertTrue(b.hasMove(WHITE));
+
+        b.put(EMPTY, Square.sq(0, 3));
+        b.put(EMPTY, Square.sq(9, 3));
+        b.put(EMPTY, Square.sq(3, 0));
+        b.put(EMPTY, Square.sq(6, 0));
+        b.put(WHITE, Square.sq(9, 9));
+        b.put(SPEAR, Square.sq(6, 9));
+        b.put(SPEAR, Square.sq(6, 8));
+        b.put(SPEAR, Square.sq(7, 8));
+        b.put(SPEAR, Square.sq(8, 8));
+        b.put(SPEAR, Square.sq(8, 7));
+        b.put(SPEAR, Square.sq(9, 7));
+        assertEquals(7, b.mobility(WHITE));
+        b.put(SPEAR, Square.sq(8, 9));
+        b.put(SPEAR, Square.sq(9, 8));
+        assertEquals(0, b.mobility(WHITE));
+        assertFalse(b.hasMove(WHITE));
+        assertEquals(BLACK, b.winner());
+    }
+
+    /** Tests that the selective move generator keeps the requested
+     *  numbers of amazon moves and spear throws, all of them legal. */
+    @Test
+    public void testSelectedMoves() {
+        Board b = new Board();
+        int[] all = new int[Board.MAX_MOVES],
+            selected = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(WHITE, all);
+        assertEquals(n, b.selectedMoves(WHITE, selected, 0, 0));
+        int[] sortedAll = Arrays.copyOf(all, n),
+            sortedSelected = Arrays.copyOf(selected, n);
+        Arrays.sort(sortedAll);
+        Arrays.sort(sortedSelected);
+        assertArrayEquals(sortedAll, sortedSelected);
+
+        assertEquals(15, b.selectedMoves(WHITE, selected, 5, 3));
+        Set<Integer> queenMoves = new HashSet<>();
+        for (int i = 0; i < 15; i += 1) {
+            assertTrue(b.isLegal(Move.mv(selected[i])));
+            queenMoves.add(selected[i] >> 7);
+        }
+        assertEquals(5, queenMoves.size());
+    }
+
+    /** Tests that a Tablebase gives the same move counts as
+     *  RegionSolver.solve, and moves by the right amazon, wherever on
+     *  the board a region lies. */
+    @Test
+    public void testTablebase() throws IOException {
+        File file = File.createTempFile("amazons", ".tb");
+        file.deleteOnExit();
+        Tablebase.build(file.getPath(), 3);
+        Tablebase table = new Tablebase(file.getPath());
+        for (int first = 0; first < 97; first += 1) {
+            if (first % Board.SIZE > Board.SIZE - 4) {
+                continue;
+            }
+            for (int amazon = first; amazon < first + 4; amazon += 1) {
+                long regionLo = 0, regionHi = 0;
+                for (int k = first; k < first + 4; k += 1) {
+                    if (k < 64) {
+                        regionLo |= 1L << k;
+                    } else {
+                        regionHi |= 1L << (k - 64);
+                    }
+                }
+                long amazonLo = amazon < 64 ? 1L << amazon : 0,
+                    amazonHi = amazon < 64 ? 0 : 1L << (amazon - 64);
+                int solved = RegionSolver.solve(regionLo & ~amazonLo,
+                                                regionHi & ~amazonHi,
+                                                amazonLo, amazonHi),
+                    probed = table.probe(regionLo & ~amazonLo,
+                                         regionHi & ~amazonHi,
+                                         amazonLo, amazonHi);
+                assertEquals(solved >>> 21, probed >>> 21);
+                assertEquals(amazon, Move.fromIndex(probed & 0x1fffff));
+                assertEquals(-1, table.probe(regionLo, regionHi, 0, 0));
+            }
+        }
+    }
+
+    /** Tests Territory.evaluate on a small enclosed position, all
+     *  other squares holding spears:
+     *
+     *      3  S - - S
+     *      2  - - W S - -
+     *      1  W - - - - B
+     *         a b c d e f
+     *
+     *  Moving like queens, WHITE reaches a2 b2 b3 c3 first and BLACK
+     *  e2 f2, the rest being ties, and in one move WHITE reaches 8
+     *  squares to BLACK's 6.  Moving like kings, WHITE gets there first
+     *  on 7 squares and BLACK on 3.  Early on, the value is
+     *  4 * (7 - 3) + 2 * (8 - 6); after 60 moves, it is 8 * (4 - 2). */
+    @Test
+    public void testTerritory() {
+        String[] open = { "a1", "b1", "c1", "d1", "e1", "f1", "a2", "b2",
+                          "c2", "e2", "f2", "b3", "c3" };
+        Board early = walled(new Board(), open);
+        Board late = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < 60; k += 1) {
+            late.legalMoves(late.turn(), moves);
+            late.makeMove(moves[0]);
+        }
+        walled(late, open);
+        for (Board b : new Board[] { early, late }) {
+            b.put(WHITE, Square.sq("a1"));
+            b.put(WHITE, Square.sq("c2"));
+            b.put(BLACK, Square.sq("f1"));
+        }
+        Territory territory = new Territory();
+        assertEquals(20, territory.evaluate(early));
+        assertEquals(16, territory.evaluate(late));
+    }
+
+    /** Tests the division of a board into regions, and RegionSolver's
+     *  analysis of them against exhaustive search of the whole game. */
+    @Test
+    public void testRegionSolver() {
+        Board b = walled(new Board(), "a1", "b1", "c1", "d1", "b2",
+                         "e5", "f5", "e9", "j10", "i10", "h10", "g10",
+                         "i9");
+        b.put(WHITE, Square.sq("a1"));
+        b.put(WHITE, Square.sq("e9"));
+        b.put(BLACK, Square.sq("j10"));
+        long[] lo = new long[Board.SIZE * Board.SIZE],
+            hi = new long[Board.SIZE * Board.SIZE];
+        int n = b.regions(lo, hi);
+        Set<List<Long>> regions = new HashSet<>();
+        for (int r = 0; r < n; r += 1) {
+            regions.add(Arrays.asList(lo[r], hi[r]));
+        }
+        Set<List<Long>> expected = new HashSet<>();
+        expected.add(mask("a1", "b1", "c1", "d1", "b2"));
+        expected.add(mask("e5", "f5"));
+        expected.add(mask("e9"));
+        expected.add(mask("j10", "i10", "h10", "g10", "i9"));
+        assertEquals(4, n);
+        assertEquals(expected, regions);
+
+        RegionSolver solver = new RegionSolver(null);
+        while (true) {
+            solver.analyze(b);
+            assertEquals(wins(b) ? b.turn() : b.turn().opponent(),
+                         solver.winner());
+            assertEquals(0, solver.searchLo() | solver.searchHi());
+            int tempo = solver.tempoMove(b.turn());
+            if (tempo == -1) {
+                assertNotNull(b.winner());
+                break;
+            }
+            assertTrue(b.isLegal(Move.mv(tempo)));
+            b.makeMove(tempo);
+        }
+
+        b = walled(new Board(), "a1", "b1", "c1", "d1", "b2",
+                   "e9", "j10", "i10", "h10", "g10", "i9");
+        b.put(WHITE, Square.sq("a1"));
+        b.put(BLACK, Square.sq("d1"));
+        b.put(WHITE, Square.sq("e9"));
+        b.put(BLACK, Square.sq("j10"));
+        solver.analyze(b);
+        assertNull(solver.winner());
+        List<Long> contested = mask("a1", "b1", "c1", "d1", "b2");
+        assertEquals(contested.get(0).longValue(), solver.searchLo());
+        assertEquals(contested.get(1).longValue(), solver.searchHi());
+        assertEquals(-1, solver.tempoMove(WHITE));
+        assertEquals(Square.sq("j10").index(),
+                     Move.fromIndex(solver.tempoMove(BLACK)));
+    }
+
+    /** Empty the squares of B named by OPEN, fill all others with
+     *  spears, and return B. */
+    private static Board walled(Board b, String... open) {
+        for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+            b.put(SPEAR, Square.sq(k));
+        }
+        for (String sq : open) {
+            b.put(EMPTY, Square.sq(sq));
+        }
+        return b;
+    }
+
+    /** Return the low and high words of the mask of the squares named
+     *  by SQUARES. */
+    private static List<Long> mask(String... squares) {
+        long lo = 0, hi = 0;
+        for (String sq : squares) {
+            int k = Square.sq(sq).index();
+            if (k < 64) {
+                lo |= 1L << k;
+            } else {
+                hi |= 1L << (k - 64);
+            }
+        }
+        return Arrays.asList(lo, hi);
+    }
+
+    /** Return true iff the player to move on B can force a win, by
+     *  exhaustive search.  B is restored before returning. */
+    private static boolean wins(Board b) {
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(b.turn(), moves);
+        for (int i = 0; i < n; i += 1) {
+            b.makeMove(moves[i]);
+            boolean lost = !wins(b);
+            b.undo();
+            if (lost) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Tests that an OpeningBook built from a log holds the moves
+     *  played from each position, with their visits, sharing records
+     *  between positions that are equivalent by symmetry. */
+    @Test
+    public void testOpeningBook() throws IOException {
+        File log = File.createTempFile("amazons", ".log"),
+            file = File.createTempFile("amazons", ".book");
+        log.deleteOnExit();
+        file.deleteOnExit();
+        try (PrintStream out = new PrintStream(log)) {
+            out.println("d1-d7(g7)");
+            out.println("g10-g8(d8)");
+            out.println("new");
+            out.println("d1-d7(g7)");
+            out.println("auto white");
+            out.println("a7-b8(h8)");
+            out.println("new");
+            out.println("g1-g7(d7)");
+            out.println("d10-d8(g8)");
+            out.println("new");
+            out.println("d1-d7(g7)  # again");
+            out.println("a7-a8(a9)");
+            out.println("undo");
+            out.println("g10-g8(d8)");
+        }
+        assertEquals(4, OpeningBook.build(file.getPath(),
+                                          Arrays.asList(log.getPath()), 2));
+        OpeningBook book = new OpeningBook(file.getPath());
+        Board b = new Board();
+        int first = book.find(b.canonicalKey());
+        assertTrue(first >= 0);
+        assertEquals(Move.symmetric(b.canonicalSymmetry(),
+                                    Move.mv("d1-d7(g7)").pack()),
+                     book.move(first));
+        assertEquals(3, book.visits(first));
+        b.makeMove(Move.mv("d1-d7(g7)"));
+        long key = b.canonicalKey();
+        first = book.find(key);
+        int records = 0, visits = 0;
+        for (int i = first; i < book.size() && book.key(i) == key;
+             i += 1) {
+            records += 1;
+            visits += book.visits(i);
+        }
+        assertEquals(2, records);
+        assertEquals(4, visits);
+        b.makeMove(Move.mv("a7-b8(h8)"));
+        assertEquals(-1, book.find(b.canonicalKey()));
+    }
+
+    /** Tests that an AI whose OpeningBook holds damaged records for
+     *  a position ignores them and searches instead. */
+    @Test
+    public void testDamagedOpeningBook() throws IOException {
+        File log = File.createTempFile("amazons", ".log"),
+            file = File.createTempFile("amazons", ".book");
+        log.deleteOnExit();
+        file.deleteOnExit();
+        try (PrintStream out = new PrintStream(log)) {
+            out.println("d1-d7(g7)");
+            out.println("new");
+            out.println("g1-g7(d7)");
+            out.println("new");
+            out.println("d1-d2(d3)");
+        }
+        assertEquals(3, OpeningBook.build(file.getPath(),
+                                          Arrays.asList(log.getPath()), 1));
+        int first = new OpeningBook(file.getPath())
+            .find(new Board().canonicalKey());
+        int[] damaged = { -1, Move.pack(0, 0, 0), Move.pack(0, 1, 2) };
+        /* Records are 20 bytes long, after a 12-byte header; each has
+         * its move 8 bytes in, followed by its weight. */
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            for (int i = 0; i < damaged.length; i += 1) {
+                out.seek(12 + (first + i) * 20 + 8);
+                out.writeInt(damaged[i]);
+                out.writeInt(1);
+            }
+        }
+        SearchConfig config = new SearchConfig();
+        config.setMoveTimeMillis(50);
+        config.setBookFile(file.getPath());
+        Controller controller =
+            new Controller(new NullView(), null, new TextReporter(),
+                           new TextPlayer(), new AI(config),
+                           new MCTSPlayer(config));
+        Player white = new AI(config).create(WHITE, controller);
+        assertTrue(controller.board().isLegal(Move.mv(white.myMove())));
+    }
+
+    /** Tests that an MCTSPlayer finds legal moves, building a tree. */
+    @Test
+    public void testMCTSPlayer() {
+        SearchConfig config = new SearchConfig();
+        config.setMoveTimeMillis(50);
+        config.setTreeNodes(1 << 12);
+        Controller controller =
+            new Controller(new NullView(), null, new TextReporter(),
+                           new TextPlayer(), new AI(config),
+                           new MCTSPlayer(config));
+        MCTSPlayer white =
+            (MCTSPlayer) new MCTSPlayer(config).create(WHITE, controller);
+        Board b = controller.board();
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < 4; k += 1) {
+            Move move = Move.mv(white.myMove());
+            assertTrue(b.isLegal(move));
+            assertTrue(white.playouts() > 0);
+            assertTrue(white.nodesUsed() > 1);
+            b.makeMove(move);
+            b.makeMove(moves[b.legalMoves(BLACK, moves) - 1]);
+        }
+    }
+
+    /** Tests symmetry: canonical keys of mirror-image positions, and
+     *  the removal of equivalent moves in a symmetric position. */
+    @Test
+    public void testSymmetry() {
+        for (int sym = 0; sym < Square.SYMMETRIES; sym += 1) {
+            for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+                assertEquals(k, Square.symmetric(Square.inverse(sym),
+                                                 Square.symmetric(sym, k)));
+            }
+        }
+        Board b = new Board(), mirror = new Board();
+        assertTrue(b.isSymmetric(4));
+        assertFalse(b.isSymmetric(2));
+        b.makeMove(Move.mv("d1-d7(g7)"));
+        mirror.makeMove(Move.mv("g1-g7(d7)"));
+        assertNotEquals(b.key(), mirror.key());
+        assertEquals(b.canonicalKey(), mirror.canonicalKey());
+        b.undo();
+
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(WHITE, moves);
+        Set<Integer> all = new HashSet<>();
+        for (int i = 0; i < n; i += 1) {
+            all.add(moves[i]);
+        }
+        int unique = b.uniqueMoves(moves, n);
+        assertTrue(unique < n);
+        Set<Integer> covered = new HashSet<>();
+        for (int i = 0; i < unique; i += 1) {
+            covered.add(moves[i]);
+            covered.add(Move.symmetric(4, moves[i]));
+        }
+        assertEquals(all, covered);
+    }
+
+    /** Tests that randomMove returns only legal moves, each of them
+     *  eventually, and -1 for a side with none. */
+    @Test
+    public void testRandomMove() {
+        Random random = new Random(61);
+        Board b = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < 30; k += 1) {
+            b.makeMove(moves[random.nextInt(b.legalMoves(b.turn(), moves))]);
+        }
+        int n = b.legalMoves(b.turn(), moves);
+        Set<Integer> all = new HashSet<>(), seen = new HashSet<>();
+        for (int i = 0; i < n; i += 1) {
+            all.add(moves[i]);
+        }
+        for (int i = 0; i < 50 * n; i += 1) {
+            int move = b.randomMove(b.turn(), random::nextInt);
+            assertTrue(all.contains(move));
+            seen.add(move);
+        }
+        assertEquals(all, seen);
+
+        b = new Board();
+        b.put(EMPTY, Square.sq(0, 6));
+        b.put(EMPTY, Square.sq(9, 6));
+        b.put(EMPTY, Square.sq(3, 9));
+        b.put(EMPTY, Square.sq(6, 9));
+        b.put(BLACK, Square.sq(0, 9));
+        b.put(BLACK, Square.sq(0, 8));
+        b.put(BLACK, Square.sq(1, 9));
+        b.put(BLACK, Square.sq(1, 8));
+        b.put(SPEAR, Square.sq(0, 7));
+        b.put(SPEAR, Square.sq(1, 7));
+        b.put(SPEAR, Square.sq(2, 7));
+        b.put(SPEAR, Square.sq(2, 8));
+        b.put(SPEAR, Square.sq(2, 9));
+        assertEquals(-1, b.randomMove(BLACK, random::nextInt));
+        assertNotEquals(-1, b.randomMove(WHITE, random::nextInt));
+    }
+
     @Test
     public void testWin() {
         Board b = new Board();